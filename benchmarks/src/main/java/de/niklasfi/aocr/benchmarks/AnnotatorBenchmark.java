@@ -0,0 +1,93 @@
+package de.niklasfi.aocr.benchmarks;
+
+import de.niklasfi.aocr.AnnotatedImage;
+import de.niklasfi.aocr.AzurePdfAnnotator;
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.rendering.ImageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of output pages from page images, with and without a text layer. Every operation creates a single page, so
+ * scores are in pages per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class AnnotatorBenchmark {
+    @Param({"BINARY", "RGB"})
+    ImageType imageType;
+
+    @Param({"0", "40", "400"})
+    int lines;
+
+    private final AzurePdfAnnotator annotator = new AzurePdfAnnotator();
+    private final PDFont font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+    private List<AnnotatedImage> annotatedImages;
+    private PDDocument document;
+    private int next;
+
+    @Setup
+    public void setup() {
+        annotatedImages = BenchmarkData.renderedPages(300, imageType).stream()
+                .map(image -> new AnnotatedImage(image, lines == 0
+                        ? Optional.<AnalyzeResult>empty()
+                        : Optional.of(BenchmarkData.analyzeResult(image.getWidth(), image.getHeight(), lines))
+                ))
+                .toList();
+    }
+
+    /**
+     * pages are added to a fresh document in every iteration, so that memory usage does not grow across iterations
+     */
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        document = new PDDocument();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        document.close();
+    }
+
+    private AnnotatedImage nextImage() {
+        return annotatedImages.get(next++ % annotatedImages.size());
+    }
+
+    @Benchmark
+    public PDDocument addPageToDocument() {
+        annotator.addPageToDocument(document, font, nextImage());
+        return document;
+    }
+
+    /**
+     * the part of {@link #addPageToDocument()} which runs concurrently for different pages
+     */
+    @Benchmark
+    public AzurePdfAnnotator.PreparedPage preparePage() {
+        return annotator.preparePage(font, nextImage());
+    }
+}
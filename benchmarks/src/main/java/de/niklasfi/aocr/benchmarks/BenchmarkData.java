@@ -0,0 +1,223 @@
+package de.niklasfi.aocr.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import de.niklasfi.aocr.PdfImageRenderer;
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import de.niklasfi.aocr.azure.dto.Language;
+import de.niklasfi.aocr.azure.dto.Line;
+import de.niklasfi.aocr.azure.dto.ReadResult;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import de.niklasfi.aocr.azure.dto.Status;
+import de.niklasfi.aocr.azure.dto.Unit;
+import de.niklasfi.aocr.azure.dto.Word;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.multipdf.Splitter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.CCITTFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.rendering.ImageType;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Inputs shared by the benchmarks. Everything is derived from the test pdf of aocr or generated from a fixed seed, so
+ * that the results of different runs and releases can be compared.
+ */
+final class BenchmarkData {
+    private static final String TEST_PDF = "/LaTeXTemplates_tufte-essay_v2.0.pdf";
+
+    private static final String[] WORDS = {
+            "the", "of", "and", "a", "to", "in", "is", "that", "for", "it", "as", "with", "was", "on", "be", "by",
+            "this", "are", "from", "or", "which", "analysis", "document", "margin", "typography", "figure",
+            "sidenote", "Tufte", "2024", "p.", "(see", "below)", "information", "design", "quantitative", "display"
+    };
+
+    private BenchmarkData() {
+    }
+
+    static ObjectMapper objectMapper() {
+        return JsonMapper.builder().addModule(new JavaTimeModule()).build();
+    }
+
+    static byte[] testPdf() {
+        try (final var is = BenchmarkData.class.getResourceAsStream(TEST_PDF)) {
+            if (is == null) {
+                throw new IllegalStateException("test pdf %s is missing from the classpath".formatted(TEST_PDF));
+            }
+            return is.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static byte[] save(PDDocument document) {
+        final var os = new ByteArrayOutputStream();
+        try {
+            document.save(os);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return os.toByteArray();
+    }
+
+    static PDDocument load(byte[] pdf) {
+        try {
+            return Loader.loadPDF(pdf);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return a document of its own for every page of the test pdf
+     */
+    static List<PDDocument> testPdfPages() {
+        final var pages = new ArrayList<PDDocument>();
+        try (final var document = load(testPdf())) {
+            for (final var page : new Splitter().split(document)) {
+                // the split pages refer to objects of the source document. Saving and loading them detaches them
+                try (page) {
+                    pages.add(load(save(page)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return pages;
+    }
+
+    /**
+     * @return images of all pages of the test pdf
+     */
+    static List<BufferedImage> renderedPages(int dpi, ImageType imageType) {
+        try (final var document = load(testPdf())) {
+            return new PdfImageRenderer(dpi, imageType).getImages(document)
+                    .map(pageContainer -> pageContainer.data().orElseThrow())
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return a document of its own for every page of the test pdf, which only consists of an image of the page, like a
+     * scan. Binary images are ccitt compressed, all others are jpeg compressed
+     */
+    static List<PDDocument> scannedPages(int dpi, ImageType imageType) {
+        final var pages = new ArrayList<PDDocument>();
+        for (final var image : renderedPages(dpi, imageType)) {
+            try (final var document = new PDDocument()) {
+                final var pdPage = new PDPage(new PDRectangle(image.getWidth() * 72f / dpi, image.getHeight() * 72f / dpi));
+                document.addPage(pdPage);
+                final var pdImage = imageType == ImageType.BINARY
+                        ? CCITTFactory.createFromImage(document, image)
+                        : JPEGFactory.createFromImage(document, image, .8f);
+                try (final var cs = new PDPageContentStream(document, pdPage)) {
+                    cs.drawImage(pdImage, 0, 0, pdPage.getMediaBox().getWidth(), pdPage.getMediaBox().getHeight());
+                }
+                pages.add(load(save(document)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return a result like azure's for an image of the given size, with lineCount lines of text evenly distributed
+     * over the image
+     */
+    static AnalyzeResult analyzeResult(int width, int height, int lineCount) {
+        final var random = new Random(width * 31L + height * 17L + lineCount);
+        final var margin = width / 10f;
+        final var pitch = (height - 2 * margin) / lineCount;
+        final var lineHeight = .7f * pitch;
+
+        final var lines = new ArrayList<Line>(lineCount);
+        for (int lineIdx = 0; lineIdx < lineCount; lineIdx++) {
+            final var top = margin + lineIdx * pitch;
+            final var bottom = top + lineHeight;
+            final var words = new ArrayList<Word>();
+            final var text = new StringBuilder();
+            var left = margin;
+            while (true) {
+                final var word = WORDS[random.nextInt(WORDS.length)];
+                final var right = left + word.length() * lineHeight * .55f;
+                if (right > width - margin) {
+                    break;
+                }
+                words.add(new Word(box(left, top, right, bottom), .9 + .1 * random.nextDouble(), word));
+                if (!text.isEmpty()) {
+                    text.append(' ');
+                }
+                text.append(word);
+                left = right + lineHeight * .3f;
+            }
+            final var lineRight = words.isEmpty() ? margin : words.getLast().boundingBox()[2];
+            lines.add(new Line(box(margin, top, lineRight, bottom), null, text.toString(), words, null));
+        }
+        return new AnalyzeResult(
+                List.of(new ReadResult(1, 0, width, height, Unit.PIXEL, Language.ENGLISH, lines)),
+                "3.2.0",
+                "2022-04-30"
+        );
+    }
+
+    private static float[] box(float left, float top, float right, float bottom) {
+        return new float[]{left, top, right, top, right, bottom, left, bottom};
+    }
+
+    /**
+     * @return the body of a response of azure's read result endpoint for a finished operation, see
+     * {@link #analyzeResult(int, int, int)}
+     */
+    static byte[] readResultJson(int width, int height, int lineCount) {
+        return readResultJson(width, height, lineCount, 1);
+    }
+
+    /**
+     * @param pages number of pages of the submitted document, which all get the same result
+     */
+    static byte[] readResultJson(int width, int height, int lineCount, int pages) {
+        final var now = ZonedDateTime.parse("2024-01-01T00:00:00Z");
+        final var page = analyzeResult(width, height, lineCount);
+        final var readResult = page.readResults().getFirst();
+        final var readResults = IntStream.rangeClosed(1, pages)
+                .mapToObj(pageNumber -> new ReadResult(
+                        pageNumber,
+                        readResult.angle(),
+                        readResult.width(),
+                        readResult.height(),
+                        readResult.unit(),
+                        readResult.language(),
+                        readResult.lines()
+                ))
+                .toList();
+        final var header = new ReadResultHeader(
+                Status.SUCCEEDED,
+                now,
+                now.plusSeconds(2),
+                new AnalyzeResult(readResults, page.version(), page.modelVersion())
+        );
+        try {
+            // azure sends dates as strings
+            return objectMapper().writer().without(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).writeValueAsBytes(header);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package de.niklasfi.aocr.benchmarks;
+
+import java.time.Duration;
+import java.util.random.RandomGenerator;
+
+/**
+ * Distribution of the time the stand-in server takes to process an operation.
+ */
+public interface LatencyDistribution {
+    Duration sample(RandomGenerator random);
+
+    static LatencyDistribution fixed(Duration latency) {
+        return random -> latency;
+    }
+
+    static LatencyDistribution uniform(Duration min, Duration max) {
+        return random -> Duration.ofNanos(random.nextLong(min.toNanos(), max.toNanos() + 1));
+    }
+
+    /**
+     * Long tailed distribution, like the processing times of the read api.
+     *
+     * @param median half of all samples are shorter than median
+     * @param sigma  standard deviation of the logarithm of the samples. 0.5 puts the 99th percentile at about 3.2
+     *               times the median
+     */
+    static LatencyDistribution logNormal(Duration median, double sigma) {
+        return random -> Duration.ofNanos((long) (median.toNanos() * Math.exp(sigma * random.nextGaussian())));
+    }
+
+    /**
+     * @param spec one of {@code fixed:<ms>}, {@code uniform:<min ms>:<max ms>} or {@code lognormal:<median ms>:<sigma>}
+     */
+    static LatencyDistribution parse(String spec) {
+        final var parts = spec.split(":");
+        try {
+            return switch (parts[0]) {
+                case "fixed" -> fixed(Duration.ofMillis(Long.parseLong(parts[1])));
+                case "uniform" -> uniform(
+                        Duration.ofMillis(Long.parseLong(parts[1])),
+                        Duration.ofMillis(Long.parseLong(parts[2]))
+                );
+                case "lognormal" -> logNormal(Duration.ofMillis(Long.parseLong(parts[1])), Double.parseDouble(parts[2]));
+                default -> throw new IllegalArgumentException("unknown latency distribution '%s'".formatted(parts[0]));
+            };
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("invalid latency distribution '%s'".formatted(spec), e);
+        }
+    }
+}
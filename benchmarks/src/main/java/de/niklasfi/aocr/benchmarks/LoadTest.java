@@ -0,0 +1,202 @@
+package de.niklasfi.aocr.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.niklasfi.aocr.AzurePdfOcr;
+import de.niklasfi.aocr.AzurePdfOcrParameters;
+import de.niklasfi.aocr.FileUtil;
+import de.niklasfi.aocr.PdfImageRenderer;
+import de.niklasfi.aocr.azure.api.AzureApiAdapter;
+import de.niklasfi.aocr.azure.api.AzureUriBuilder;
+import de.niklasfi.aocr.azure.api.OperationLocation;
+import de.niklasfi.aocr.azure.dto.Language;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.rendering.ImageType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Runs documents through {@link AzurePdfOcr} against a {@link ReadApiStandIn} and reports pages per second and the
+ * latency of pages, so that changes to the concurrency of aocr can be measured offline and reproducibly.
+ */
+public class LoadTest {
+
+    /**
+     * Records, per page, the time from its submission until its result is available, as seen by {@link AzurePdfOcr}.
+     * This includes waiting for the rate limiters and retries after throttling.
+     */
+    private static class TimingApiAdapter extends AzureApiAdapter {
+        private final ThreadLocal<Long> submitted = new ThreadLocal<>();
+        private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+        TimingApiAdapter(AzureUriBuilder uriBuilder, HttpClient httpClient, ObjectMapper objectMapper) {
+            super(uriBuilder, "stand-in", httpClient, objectMapper);
+        }
+
+        @Override
+        public OperationLocation waitAnalyze(byte[] data, ContentType contentType, Language language, Duration timeout) throws IOException {
+            // pages are submitted and waited for on the same thread
+            submitted.set(System.nanoTime());
+            return super.waitAnalyze(data, contentType, language, timeout);
+        }
+
+        @Override
+        public ReadResultHeader waitResult(OperationLocation operationLocation, Duration timeout) throws IOException {
+            try {
+                return super.waitResult(operationLocation, timeout);
+            } finally {
+                final var begin = submitted.get();
+                if (begin != null) {
+                    latencies.add(System.nanoTime() - begin);
+                    submitted.remove();
+                }
+            }
+        }
+
+        List<Long> drainLatencies() {
+            synchronized (latencies) {
+                final var drained = new ArrayList<>(latencies);
+                latencies.clear();
+                return drained;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final var options = new Options();
+        options.addOption(new Option("i", "input", true, "pdf to process. Defaults to the test pdf of aocr."));
+        options.addOption(new Option("n", "documents", true, "number of times the input is processed. Defaults to 4."));
+        options.addOption(new Option(null, "warmup", true, "number of times the input is processed before measuring. Defaults to 1."));
+        options.addOption(new Option("p", "pages-in-flight", true, "pages in flight of AzurePdfOcr. Defaults to 8."));
+        options.addOption(new Option("d", "render-dpi", true, "dpi to render pages with. Defaults to 150."));
+        options.addOption(new Option(null, "pdf-pages", true, "submit pdf documents of this many pages instead of page images. Defaults to 0, page images."));
+        options.addOption(new Option(null, "latency", true, "processing latency of the stand-in: fixed:<ms>, uniform:<min ms>:<max ms> or lognormal:<median ms>:<sigma>. Defaults to lognormal:1500:0.5."));
+        options.addOption(new Option(null, "throttle-rate", true, "fraction of requests rejected with 429. Defaults to 0."));
+        options.addOption(new Option(null, "retry-after", true, "Retry-After of rejected requests in seconds. Defaults to 1."));
+        options.addOption(new Option(null, "fault-rate", true, "fraction of requests failing with 5xx. Defaults to 0."));
+        options.addOption(new Option(null, "seed", true, "seed of the stand-in. Defaults to 42."));
+
+        final CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("load-test", options);
+            System.exit(1);
+            return;
+        }
+
+        final var input = Optional.ofNullable(cmd.getOptionValue("input"))
+                .map(path -> {
+                    try {
+                        return Files.readAllBytes(Path.of(path));
+                    } catch (IOException e) {
+                        throw new RuntimeException("could not read input file '%s'".formatted(path), e);
+                    }
+                })
+                .orElseGet(BenchmarkData::testPdf);
+        final var documents = Integer.parseInt(cmd.getOptionValue("documents", "4"));
+        final var warmup = Integer.parseInt(cmd.getOptionValue("warmup", "1"));
+        final var pagesInFlight = Integer.parseInt(cmd.getOptionValue("pages-in-flight", "8"));
+        final var renderDpi = Integer.parseInt(cmd.getOptionValue("render-dpi", "150"));
+        final var pdfPages = Integer.parseInt(cmd.getOptionValue("pdf-pages", "0"));
+
+        final var defaults = ReadApiStandIn.Config.buildDefault();
+        final var config = new ReadApiStandIn.Config(
+                Optional.ofNullable(cmd.getOptionValue("latency")).map(LatencyDistribution::parse).orElse(defaults.latency()),
+                Double.parseDouble(cmd.getOptionValue("throttle-rate", Double.toString(defaults.throttleRate()))),
+                Integer.parseInt(cmd.getOptionValue("retry-after", Integer.toString(defaults.retryAfter()))),
+                Double.parseDouble(cmd.getOptionValue("fault-rate", Double.toString(defaults.faultRate()))),
+                defaults.pixelsPerLine(),
+                Long.parseLong(cmd.getOptionValue("seed", Long.toString(defaults.seed())))
+        );
+
+        try (final var standIn = new ReadApiStandIn(0, config)) {
+            final var maxConnections = Math.max(5, pagesInFlight);
+            final var connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                    .setMaxConnTotal(maxConnections)
+                    .setMaxConnPerRoute(maxConnections)
+                    .build();
+            final var apiAdapter = new TimingApiAdapter(
+                    new AzureUriBuilder(standIn.endpoint()),
+                    // like Main, so that injected throttling reaches the rate limiter
+                    HttpClients.custom().setConnectionManager(connectionManager).disableAutomaticRetries().build(),
+                    BenchmarkData.objectMapper()
+            );
+            final var azurePdfOcr = new AzurePdfOcr(
+                    apiAdapter,
+                    new PdfImageRenderer(renderDpi, ImageType.BINARY),
+                    new FileUtil(),
+                    doc -> new PDType1Font(Standard14Fonts.FontName.HELVETICA),
+                    AzurePdfOcrParameters.buildDefault()
+                            .withPagesInFlight(pagesInFlight)
+                            .withPdfPagesPerRequest(pdfPages)
+            );
+
+            for (int idx = 0; idx < warmup; idx++) {
+                azurePdfOcr.ocrGetAnalyzeResults(input);
+            }
+            apiAdapter.drainLatencies();
+
+            var pages = 0;
+            var failedPages = 0;
+            final var begin = System.nanoTime();
+            for (int idx = 0; idx < documents; idx++) {
+                final var analyzeResults = azurePdfOcr.ocrGetAnalyzeResults(input).analyzeResults();
+                pages += analyzeResults.size();
+                failedPages += (int) analyzeResults.stream().filter(Objects::isNull).count();
+            }
+            final var elapsed = Duration.ofNanos(System.nanoTime() - begin);
+
+            final var latencies = apiAdapter.drainLatencies();
+            Collections.sort(latencies);
+            final var stats = standIn.stats();
+
+            System.out.printf(
+                    "%d documents, %d pages (%d without result) in %.1f s: %.2f pages/s%n",
+                    documents, pages, failedPages, elapsed.toMillis() / 1000., pages * 1e9 / elapsed.toNanos()
+            );
+            System.out.printf(
+                    "page latency: p50 %d ms, p90 %d ms, p99 %d ms, max %d ms%n",
+                    percentileMillis(latencies, .5),
+                    percentileMillis(latencies, .9),
+                    percentileMillis(latencies, .99),
+                    percentileMillis(latencies, 1)
+            );
+            System.out.printf(
+                    "stand-in: %d analyze requests, %d result requests, %d throttled, %d faults%n",
+                    stats.analyzeRequests(), stats.resultRequests(), stats.throttled(), stats.faults()
+            );
+        }
+    }
+
+    /**
+     * @param sorted latencies in nanoseconds, in ascending order
+     */
+    private static long percentileMillis(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        final var idx = Math.max(0, (int) Math.ceil(percentile * sorted.size()) - 1);
+        return Duration.ofNanos(sorted.get(idx)).toMillis();
+    }
+}
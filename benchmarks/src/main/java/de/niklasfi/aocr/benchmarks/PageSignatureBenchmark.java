@@ -0,0 +1,48 @@
+package de.niklasfi.aocr.benchmarks;
+
+import de.niklasfi.aocr.PageSignature;
+import org.apache.pdfbox.rendering.ImageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computing the signatures of page images, which are used to skip blank pages and to reuse the results of duplicates.
+ * Should score well above {@link PngEncodeBenchmark}, as every page is signed before it is encoded. Every operation
+ * signs a single page, so scores are in pages per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PageSignatureBenchmark {
+    @Param({"BINARY", "GRAY", "RGB"})
+    ImageType imageType;
+
+    private List<BufferedImage> images;
+    private int next;
+
+    @Setup
+    public void setup() {
+        images = BenchmarkData.renderedPages(300, imageType);
+    }
+
+    @Benchmark
+    public PageSignature sign() {
+        return PageSignature.of(images.get(next++ % images.size()));
+    }
+}
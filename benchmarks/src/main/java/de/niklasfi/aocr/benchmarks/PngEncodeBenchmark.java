@@ -0,0 +1,54 @@
+package de.niklasfi.aocr.benchmarks;
+
+import de.niklasfi.aocr.EncodedImage;
+import de.niklasfi.aocr.PngUploadEncoder;
+import org.apache.pdfbox.rendering.ImageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of page images for the upload to azure. Every operation encodes a single page, so scores are in pages per
+ * second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PngEncodeBenchmark {
+    @Param({"BINARY", "GRAY", "RGB"})
+    ImageType imageType;
+
+    @Param({"1", "4", "9"})
+    int compressionLevel;
+
+    private PngUploadEncoder encoder;
+    private List<BufferedImage> images;
+    private int next;
+
+    @Setup
+    public void setup() {
+        encoder = new PngUploadEncoder(compressionLevel);
+        images = BenchmarkData.renderedPages(300, imageType);
+    }
+
+    @Benchmark
+    public EncodedImage encode() throws IOException {
+        return encoder.encode(images.get(next++ % images.size()));
+    }
+}
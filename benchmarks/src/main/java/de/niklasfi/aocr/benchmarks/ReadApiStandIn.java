@@ -0,0 +1,231 @@
+package de.niklasfi.aocr.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.pdfbox.Loader;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the read api of azure, which allows load tests without azure.
+ * <p>
+ * It accepts images and pdf documents at {@code /vision/v3.2/read/analyze} and serves results at
+ * {@code /vision/v3.2/read/analyzeResults/{id}}, so that {@link de.niklasfi.aocr.azure.api.AzureUriBuilder} can simply
+ * be pointed at {@link #endpoint()}. Operations are reported as running until their processing latency has passed.
+ * Their results are synthetic, with lines of text spread over the uploaded image, or over every page of an uploaded
+ * pdf document. Requests to both endpoints can be rejected with 429 or fail with 5xx at configurable rates.
+ */
+public class ReadApiStandIn implements AutoCloseable {
+    private static final String ANALYZE_PATH = "/vision/v3.2/read/analyze";
+    private static final String RESULTS_PATH = "/vision/v3.2/read/analyzeResults/";
+
+    /**
+     * size of the pages of uploads which are not images, e.g. pdf documents. A4 at 300 dpi
+     */
+    private static final Size DEFAULT_SIZE = new Size(2480, 3508, 1);
+
+    /**
+     * @param latency       time from the submission of an operation until its result is available
+     * @param throttleRate  fraction of requests which are rejected with 429
+     * @param retryAfter    Retry-After of rejected requests in seconds
+     * @param faultRate     fraction of requests which fail with 500 or 503
+     * @param pixelsPerLine vertical distance of the lines of text in results, in pixels of the uploaded image
+     * @param seed          seed of all random decisions
+     */
+    public record Config(
+            LatencyDistribution latency,
+            double throttleRate,
+            int retryAfter,
+            double faultRate,
+            int pixelsPerLine,
+            long seed
+    ) {
+        public static Config buildDefault() {
+            return new Config(
+                    LatencyDistribution.logNormal(Duration.ofMillis(1500), .5),
+                    0,
+                    1,
+                    0,
+                    80,
+                    42
+            );
+        }
+    }
+
+    /**
+     * @param analyzeRequests requests to the analyze endpoint, including rejected and failed ones
+     * @param resultRequests  requests to the result endpoint, including rejected and failed ones
+     * @param throttled       requests which were rejected with 429
+     * @param faults          requests which failed with 5xx
+     */
+    public record Stats(long analyzeRequests, long resultRequests, long throttled, long faults) {
+    }
+
+    /**
+     * @param pages number of pages of a pdf document, 1 for images
+     */
+    private record Size(int width, int height, int pages) {
+    }
+
+    private record Operation(Instant ready, Size size) {
+    }
+
+    private final Config config;
+    private final Random random;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    /**
+     * response bodies of succeeded operations by image size. Generating them once keeps the cpu time of the stand-in
+     * out of the measurements
+     */
+    private final Map<Size, byte[]> results = new ConcurrentHashMap<>();
+
+    private final AtomicLong analyzeRequests = new AtomicLong();
+    private final AtomicLong resultRequests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong faults = new AtomicLong();
+
+    /**
+     * Starts the stand-in on the loopback interface.
+     *
+     * @param port port to listen on, or 0 for any free port
+     */
+    public ReadApiStandIn(int port, Config config) throws IOException {
+        this.config = config;
+        this.random = new Random(config.seed());
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext(ANALYZE_PATH, exchange -> handle(exchange, analyzeRequests, this::analyze));
+        server.createContext(RESULTS_PATH, exchange -> handle(exchange, resultRequests, this::result));
+        server.start();
+    }
+
+    /**
+     * @return endpoint url to construct {@link de.niklasfi.aocr.azure.api.AzureUriBuilder} with
+     */
+    public String endpoint() {
+        final var address = server.getAddress();
+        return "http://%s:%d".formatted(address.getHostString(), address.getPort());
+    }
+
+    public Stats stats() {
+        return new Stats(analyzeRequests.get(), resultRequests.get(), throttled.get(), faults.get());
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, byte[] body) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, AtomicLong requests, Handler handler) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            // the body is read in any case, just like azure receives the upload before deciding on it
+            final var body = exchange.getRequestBody().readAllBytes();
+            if (!injectFailure(exchange)) {
+                handler.handle(exchange, body);
+            }
+        }
+    }
+
+    /**
+     * @return whether the request has been answered with a failure
+     */
+    private boolean injectFailure(HttpExchange exchange) throws IOException {
+        final var r = random.nextDouble();
+        if (r < config.throttleRate()) {
+            throttled.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(config.retryAfter()));
+            exchange.sendResponseHeaders(429, -1);
+            return true;
+        }
+        if (r < config.throttleRate() + config.faultRate()) {
+            faults.incrementAndGet();
+            exchange.sendResponseHeaders(random.nextBoolean() ? 500 : 503, -1);
+            return true;
+        }
+        return false;
+    }
+
+    private void analyze(HttpExchange exchange, byte[] upload) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        final var size = imageSize(upload);
+        final var operationId = UUID.randomUUID().toString();
+        operations.put(operationId, new Operation(Instant.now().plus(config.latency().sample(random)), size));
+
+        exchange.getResponseHeaders().set("Operation-Location", endpoint() + RESULTS_PATH + operationId);
+        exchange.sendResponseHeaders(202, -1);
+    }
+
+    private void result(HttpExchange exchange, byte[] ignored) throws IOException {
+        final var operationId = exchange.getRequestURI().getPath().substring(RESULTS_PATH.length());
+        final var operation = operations.get(operationId);
+        if (operation == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        final byte[] body;
+        if (Instant.now().isBefore(operation.ready())) {
+            body = "{\"status\":\"running\"}".getBytes(StandardCharsets.UTF_8);
+        } else {
+            body = results.computeIfAbsent(operation.size(), size -> BenchmarkData.readResultJson(
+                    size.width(),
+                    size.height(),
+                    Math.max(1, size.height() / config.pixelsPerLine()),
+                    size.pages()
+            ));
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Size imageSize(byte[] data) {
+        try (final var iis = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            final var readers = ImageIO.getImageReaders(iis);
+            if (readers.hasNext()) {
+                final var reader = readers.next();
+                try {
+                    // only the header is read
+                    reader.setInput(iis, true, true);
+                    return new Size(reader.getWidth(0), reader.getHeight(0), 1);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException e) {
+            // not an image
+        }
+        try (final var document = Loader.loadPDF(data)) {
+            return new Size(DEFAULT_SIZE.width(), DEFAULT_SIZE.height(), document.getNumberOfPages());
+        } catch (IOException e) {
+            // not a pdf document either
+        }
+        return DEFAULT_SIZE;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+}
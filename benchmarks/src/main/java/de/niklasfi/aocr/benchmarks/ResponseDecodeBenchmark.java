@@ -0,0 +1,74 @@
+package de.niklasfi.aocr.benchmarks;
+
+import de.niklasfi.aocr.azure.api.ReadResultHeaderResponseHandler;
+import de.niklasfi.aocr.azure.core.http.HttpEntityResponseHandler;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the read result of a single page, from a response body in azure's format. A4 pages at 300 dpi with 40
+ * lines are typical, dense pages have up to a few hundred lines. Every operation decodes one page, so scores are in
+ * pages per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ResponseDecodeBenchmark {
+    @Param({"40", "400"})
+    int lines;
+
+    private byte[] body;
+    private HttpEntityResponseHandler<ReadResultHeader> entityResponseHandler;
+    private ReadResultHeaderResponseHandler readResultHeaderResponseHandler;
+
+    @Setup
+    public void setup() {
+        body = BenchmarkData.readResultJson(2480, 3508, lines);
+        final var objectMapper = BenchmarkData.objectMapper();
+        entityResponseHandler = new HttpEntityResponseHandler<>(objectMapper, ReadResultHeader.class);
+        readResultHeaderResponseHandler = new ReadResultHeaderResponseHandler(objectMapper);
+    }
+
+    private ClassicHttpResponse response() {
+        final var response = new BasicClassicHttpResponse(200);
+        response.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        return response;
+    }
+
+    /**
+     * generic decoding of the complete body into a {@link ReadResultHeader}
+     */
+    @Benchmark
+    public ReadResultHeader entityResponseHandler() throws HttpException, IOException {
+        return entityResponseHandler.handleResponse(response());
+    }
+
+    /**
+     * decoding as done by the api adapters when polling for results
+     */
+    @Benchmark
+    public ReadResultHeader readResultHeaderResponseHandler() throws HttpException, IOException {
+        return readResultHeaderResponseHandler.handleResponse(response());
+    }
+}
@@ -0,0 +1,84 @@
+package de.niklasfi.aocr.benchmarks;
+
+import de.niklasfi.aocr.PageImage;
+import de.niklasfi.aocr.PdfImageExtractor;
+import de.niklasfi.aocr.PdfImageRenderer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retrieval of page images from the input pdf. Every operation retrieves a single page, so scores are in pages per
+ * second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RetrieverBenchmark {
+    @Param({"150", "300"})
+    int dpi;
+
+    @Param({"BINARY", "GRAY", "RGB"})
+    ImageType imageType;
+
+    private PdfImageRenderer renderer;
+    private final PdfImageExtractor extractor = new PdfImageExtractor();
+
+    private List<PDDocument> pages;
+    private List<PDDocument> scans;
+    private int next;
+
+    @Setup
+    public void setup() {
+        renderer = new PdfImageRenderer(dpi, imageType);
+        pages = BenchmarkData.testPdfPages();
+        scans = BenchmarkData.scannedPages(dpi, imageType);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (final var document : pages) {
+            document.close();
+        }
+        for (final var document : scans) {
+            document.close();
+        }
+    }
+
+    /**
+     * renders a page of the test pdf
+     */
+    @Benchmark
+    public BufferedImage render() {
+        final var document = pages.get(next++ % pages.size());
+        return renderer.getImages(document).findFirst().orElseThrow().data().orElseThrow();
+    }
+
+    /**
+     * extracts the image of a scanned page. jpeg images are passed on without decoding them
+     */
+    @Benchmark
+    public PageImage extract() {
+        final var document = scans.get(next++ % scans.size());
+        return extractor.getPageImages(document).findFirst().orElseThrow().data().orElseThrow();
+    }
+}
@@ -0,0 +1,84 @@
+package de.niklasfi.aocr.benchmarks;
+
+import de.niklasfi.aocr.AnnotatedImage;
+import de.niklasfi.aocr.AzurePdfAnnotator;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.rendering.ImageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving of an output document of {@link #PAGES} annotated pages. Scores are in pages per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SaveBenchmark {
+    private static final int PAGES = 8;
+
+    @Param({"BINARY", "RGB"})
+    ImageType imageType;
+
+    private final AzurePdfAnnotator annotator = new AzurePdfAnnotator();
+    private final PDFont font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+    private final List<AzurePdfAnnotator.PreparedPage> preparedPages = new ArrayList<>();
+    private PDDocument document;
+
+    @Setup
+    public void setup() {
+        final var images = BenchmarkData.renderedPages(300, imageType);
+        for (int idx = 0; idx < PAGES; idx++) {
+            final var image = images.get(idx % images.size());
+            final var analyzeResult = BenchmarkData.analyzeResult(image.getWidth(), image.getHeight(), 40);
+            preparedPages.add(annotator.preparePage(font, new AnnotatedImage(image, Optional.of(analyzeResult))));
+        }
+    }
+
+    /**
+     * saving changes the state of a document, e.g. by embedding font subsets. Each invocation therefore saves a new
+     * document, which is assembled from prepared pages
+     */
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        document = new PDDocument();
+        for (final var preparedPage : preparedPages) {
+            annotator.addPreparedPage(document, font, preparedPage);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws IOException {
+        document.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public void save() throws IOException {
+        document.save(OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,52 @@
+package de.niklasfi.aocr.benchmarks;
+
+import de.niklasfi.aocr.AreaAveragingScaler;
+import org.apache.pdfbox.rendering.ImageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling page images down before the upload. Pages are rendered at 300 dpi, about 8.7 million pixels for A4. Binary
+ * images are not scaled. Every operation scales a single page, so scores are in pages per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ScaleBenchmark {
+    @Param({"GRAY", "RGB"})
+    ImageType imageType;
+
+    @Param({"2", "4"})
+    int maxMegapixels;
+
+    private AreaAveragingScaler scaler;
+    private List<BufferedImage> images;
+    private int next;
+
+    @Setup
+    public void setup() {
+        scaler = new AreaAveragingScaler(maxMegapixels * 1_000_000L);
+        images = BenchmarkData.renderedPages(300, imageType);
+    }
+
+    @Benchmark
+    public BufferedImage scale() {
+        return scaler.scale(images.get(next++ % images.size()));
+    }
+}
@@ -0,0 +1,199 @@
+package de.niklasfi.aocr;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import de.niklasfi.aocr.azure.dto.Language;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persistent cache of {@link AnalyzeResult}s, addressed by the hash of the uploaded image and the requested language.
+ * <p>
+ * Every entry is stored as gzip compressed json in a file of its own. The cache is bounded by the total size of these
+ * files and evicts the least recently used entries first. Recency survives restarts, as it is tracked using the
+ * modification time of the entry files.
+ */
+@Slf4j
+public class AnalyzeResultCache {
+    private static final String SUFFIX = ".json.gz";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * sizes of the entries in bytes, in least recently used order
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, .75f, true);
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param directory directory to store the entries in. It is created if it does not exist yet.
+     * @param maxBytes  maximum total size of all entries
+     */
+    public AnalyzeResultCache(Path directory, long maxBytes, ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.objectMapper = objectMapper;
+
+        try {
+            Files.createDirectories(directory);
+            try (final var files = Files.list(directory)) {
+                files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                        .sorted(Comparator.comparing(AnalyzeResultCache::lastModified))
+                        .forEach(path -> {
+                            final var fileName = path.getFileName().toString();
+                            final var size = size(path);
+                            entries.put(fileName.substring(0, fileName.length() - SUFFIX.length()), size);
+                            totalBytes += size;
+                        });
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not open cache directory '%s'".formatted(directory), e);
+        }
+        evict();
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param data     bytes of the image which is uploaded to azure
+     * @param language language requested for the image, may be null
+     */
+    public static String key(byte[] data, Language language) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(data);
+        digest.update((byte) 0);
+        if (language != null) {
+            digest.update(language.code().getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    public Optional<AnalyzeResult> get(String key) {
+        final boolean present;
+        synchronized (this) {
+            present = entries.get(key) != null;
+        }
+        if (!present) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        final var path = path(key);
+        try (final var is = new GZIPInputStream(Files.newInputStream(path))) {
+            final var result = objectMapper.readValue(is, AnalyzeResult.class);
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+            hits.incrementAndGet();
+            return Optional.of(result);
+        } catch (NoSuchFileException e) {
+            // evicted concurrently
+            misses.incrementAndGet();
+            return Optional.empty();
+        } catch (IOException e) {
+            log.warn("could not read cache entry {}. removing it", key, e);
+            remove(key);
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, AnalyzeResult analyzeResult) {
+        final long size;
+        try {
+            final var tmp = Files.createTempFile(directory, key, ".tmp");
+            try (final var os = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                objectMapper.writeValue(os, analyzeResult);
+            }
+            size = Files.size(tmp);
+            Files.move(tmp, path(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("could not write cache entry {}", key, e);
+            return;
+        }
+
+        synchronized (this) {
+            final var previous = entries.put(key, size);
+            totalBytes += size - (previous != null ? previous : 0);
+        }
+        evict();
+    }
+
+    private void remove(String key) {
+        synchronized (this) {
+            final var size = entries.remove(key);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+        try {
+            Files.deleteIfExists(path(key));
+        } catch (IOException e) {
+            log.warn("could not delete cache entry {}", key, e);
+        }
+    }
+
+    private void evict() {
+        while (true) {
+            final String eldest;
+            synchronized (this) {
+                if (totalBytes <= maxBytes || entries.isEmpty()) {
+                    return;
+                }
+                eldest = entries.keySet().iterator().next();
+            }
+            remove(eldest);
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+}
@@ -5,6 +5,16 @@ import de.niklasfi.aocr.azure.dto.AnalyzeResult;
 import java.awt.image.BufferedImage;
 import java.util.Optional;
 
-public record AnnotatedImage(BufferedImage bufferedImage, Optional<AnalyzeResult> analyzeResult) {
+public record AnnotatedImage(PageImage pageImage, Optional<AnalyzeResult> analyzeResult) {
 
+    public AnnotatedImage(BufferedImage bufferedImage, Optional<AnalyzeResult> analyzeResult) {
+        this(PageImage.of(bufferedImage), analyzeResult);
+    }
+
+    /**
+     * @return the decoded page image, or null if the page image was never decoded or the page has no page image
+     */
+    public BufferedImage bufferedImage() {
+        return pageImage != null ? pageImage.bufferedImage() : null;
+    }
 }
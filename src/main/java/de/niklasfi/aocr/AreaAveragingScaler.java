@@ -0,0 +1,216 @@
+package de.niklasfi.aocr;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * Scales page images down to a pixel budget before they are uploaded, as the accuracy of azure does not improve beyond
+ * a moderate resolution, while the cost of encoding and uploading grows with every pixel.
+ * <p>
+ * Every target pixel is the average of the source pixels it covers, weighted by the covered area, so that thin strokes
+ * fade instead of disappearing. Rows are processed one at a time, and each source sample contributes to at most two
+ * target columns and rows, which makes scaling considerably cheaper than encoding. Gray images stay gray, all others
+ * become rgb. Binary images are not scaled, as averaging would turn them into gray images, which encode far worse than
+ * binary ones.
+ */
+public class AreaAveragingScaler {
+    private final long maxPixels;
+
+    /**
+     * @param maxPixels maximum number of pixels of a scaled image
+     */
+    public AreaAveragingScaler(long maxPixels) {
+        if (maxPixels <= 0) {
+            throw new IllegalArgumentException("maximum number of pixels must be positive");
+        }
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * @return whether an image of the given size exceeds the pixel budget
+     */
+    public boolean exceeds(int width, int height) {
+        return (long) width * height > maxPixels;
+    }
+
+    /**
+     * @return the image scaled down to the pixel budget, keeping its aspect ratio, or image itself if it is within the
+     * budget or binary
+     */
+    public BufferedImage scale(BufferedImage image) {
+        if (!exceeds(image.getWidth(), image.getHeight()) || ImageWriters.isBinary(image)) {
+            return image;
+        }
+        final var factor = Math.sqrt((double) maxPixels / ((long) image.getWidth() * image.getHeight()));
+        return scale(
+                image,
+                Math.max(1, (int) (image.getWidth() * factor)),
+                Math.max(1, (int) (image.getHeight() * factor))
+        );
+    }
+
+    /**
+     * @param width  width of the scaled image, at most the width of image
+     * @param height height of the scaled image, at most the height of image
+     */
+    static BufferedImage scale(BufferedImage image, int width, int height) {
+        final var gray = image.getRaster().getNumBands() == 1 && !(image.getColorModel() instanceof IndexColorModel);
+        final var bands = gray ? 1 : 3;
+        final var rowReader = rowReader(image, gray);
+        final var scaled = new BufferedImage(width, height, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+
+        // a source column or row covers at most two target columns or rows. Its share in the first one is given, the
+        // rest goes to the next one
+        final var scaleX = (double) image.getWidth() / width;
+        final var scaleY = (double) image.getHeight() / height;
+        final var targetColumns = new int[image.getWidth()];
+        final var columnShares = new float[image.getWidth()];
+        for (int x = 0; x < image.getWidth(); x++) {
+            final var target = Math.min(width - 1, (int) (x / scaleX));
+            targetColumns[x] = target * bands;
+            columnShares[x] = target == width - 1 ? 1 : (float) Math.min(1, (target + 1) * scaleX - x);
+        }
+
+        final var samples = new int[image.getWidth() * bands];
+        // one spare target column, which receives the rest of the last source column
+        final var row = new float[(width + 1) * bands];
+        var current = new float[width * bands];
+        var next = new float[width * bands];
+        final var pixels = new int[width * bands];
+        // each target pixel covers this share of every source pixel it sums up
+        final var weight = (float) (1 / (scaleX * scaleY));
+        var currentRow = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            final var targetRow = Math.min(height - 1, (int) (y / scaleY));
+            final var rowShare = targetRow == height - 1 ? 1 : (float) Math.min(1, (targetRow + 1) * scaleY - y);
+            if (targetRow > currentRow) {
+                write(scaled, currentRow, current, pixels, weight);
+                final var written = current;
+                current = next;
+                next = written;
+                Arrays.fill(next, 0);
+                currentRow = targetRow;
+            }
+
+            // average the row horizontally. Every sample is split without branching, which keeps the loop fast
+            rowReader.read(y, samples);
+            Arrays.fill(row, 0);
+            if (bands == 1) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    final var target = targetColumns[x];
+                    final float sample = samples[x];
+                    final var share = columnShares[x] * sample;
+                    row[target] += share;
+                    row[target + 1] += sample - share;
+                }
+            } else {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    final var target = targetColumns[x];
+                    final var columnShare = columnShares[x];
+                    final float red = samples[x * 3];
+                    final float green = samples[x * 3 + 1];
+                    final float blue = samples[x * 3 + 2];
+                    row[target] += columnShare * red;
+                    row[target + 1] += columnShare * green;
+                    row[target + 2] += columnShare * blue;
+                    row[target + 3] += red - columnShare * red;
+                    row[target + 4] += green - columnShare * green;
+                    row[target + 5] += blue - columnShare * blue;
+                }
+            }
+
+            // and add it to the target rows it covers
+            for (int idx = 0; idx < current.length; idx++) {
+                current[idx] += rowShare * row[idx];
+            }
+            if (rowShare < 1) {
+                for (int idx = 0; idx < next.length; idx++) {
+                    next[idx] += (1 - rowShare) * row[idx];
+                }
+            }
+        }
+        write(scaled, currentRow, current, pixels, weight);
+        return scaled;
+    }
+
+    private interface RowReader {
+        /**
+         * Reads the samples of a row as values from 0 to 255, one per band.
+         */
+        void read(int y, int[] samples);
+    }
+
+    private static RowReader rowReader(BufferedImage image, boolean gray) {
+        final var raster = image.getRaster();
+        final var width = image.getWidth();
+        final var sampleModel = image.getSampleModel();
+        if (gray) {
+            final var max = (1 << sampleModel.getSampleSize(0)) - 1;
+            return (y, samples) -> {
+                raster.getSamples(0, y, width, 1, 0, samples);
+                if (max != 255) {
+                    for (int x = 0; x < width; x++) {
+                        samples[x] = samples[x] * 255 / max;
+                    }
+                }
+            };
+        }
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            // rows of packed pixels are copied in bulk, unlike single samples
+            final var rgb = new int[width];
+            return (y, samples) -> {
+                raster.getDataElements(0, y, width, 1, rgb);
+                unpack(rgb, samples);
+            };
+        }
+        final var colorModel = image.getColorModel();
+        final var rgbBands = (colorModel instanceof DirectColorModel || colorModel instanceof ComponentColorModel)
+                && colorModel.getColorSpace().isCS_sRGB()
+                && raster.getNumBands() >= 3
+                && sampleModel.getSampleSize(0) == 8 && sampleModel.getSampleSize(1) == 8 && sampleModel.getSampleSize(2) == 8;
+        if (rgbBands) {
+            // the first three bands are red, green and blue, an alpha band is ignored
+            final var bands = raster.getNumBands();
+            final var pixels = new int[width * bands];
+            return (y, samples) -> {
+                raster.getPixels(0, y, width, 1, pixels);
+                for (int x = 0; x < width; x++) {
+                    samples[x * 3] = pixels[x * bands];
+                    samples[x * 3 + 1] = pixels[x * bands + 1];
+                    samples[x * 3 + 2] = pixels[x * bands + 2];
+                }
+            };
+        }
+        final var rgb = new int[width];
+        return (y, samples) -> {
+            image.getRGB(0, y, width, 1, rgb, 0, width);
+            unpack(rgb, samples);
+        };
+    }
+
+    private static void unpack(int[] rgb, int[] samples) {
+        for (int x = 0; x < rgb.length; x++) {
+            samples[x * 3] = (rgb[x] >> 16) & 0xff;
+            samples[x * 3 + 1] = (rgb[x] >> 8) & 0xff;
+            samples[x * 3 + 2] = rgb[x] & 0xff;
+        }
+    }
+
+    private static void write(BufferedImage scaled, int y, float[] sums, int[] pixels, float weight) {
+        for (int idx = 0; idx < sums.length; idx++) {
+            pixels[idx] = Math.min(255, (int) (sums[idx] * weight + .5f));
+        }
+        if (scaled.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            scaled.getRaster().setSamples(0, y, scaled.getWidth(), 1, 0, pixels);
+            return;
+        }
+        // packed into the first third of pixels, which has been read already
+        for (int x = 0; x < scaled.getWidth(); x++) {
+            pixels[x] = pixels[x * 3] << 16 | pixels[x * 3 + 1] << 8 | pixels[x * 3 + 2];
+        }
+        scaled.getRaster().setDataElements(0, y, scaled.getWidth(), 1, pixels);
+    }
+}
@@ -0,0 +1,69 @@
+package de.niklasfi.aocr;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tries a list of encoders, ordered from cheapest to most expensive, and uses the first result which does not exceed
+ * the upload size limit. Binary images use a list of their own, as they are encoded far better by dedicated formats.
+ * If no encoder stays within the limit, the smallest result is used.
+ */
+@Slf4j
+public class AutoUploadEncoder implements UploadEncoder {
+    /**
+     * upload limit of the azure read api in the free tier
+     */
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final List<UploadEncoder> binaryEncoders;
+    private final List<UploadEncoder> encoders;
+
+    /**
+     * @param maxBytes       maximum size of an upload
+     * @param binaryEncoders encoders to try for binary images
+     * @param encoders       encoders to try for all other images
+     */
+    public AutoUploadEncoder(long maxBytes, List<UploadEncoder> binaryEncoders, List<UploadEncoder> encoders) {
+        if (binaryEncoders.isEmpty() || encoders.isEmpty()) {
+            throw new IllegalArgumentException("at least one encoder is required");
+        }
+        this.maxBytes = maxBytes;
+        this.binaryEncoders = List.copyOf(binaryEncoders);
+        this.encoders = List.copyOf(encoders);
+    }
+
+    /**
+     * Uses tiff/G4 for binary images, and jpeg with decreasing quality for all other images.
+     */
+    public static AutoUploadEncoder buildDefault(long maxBytes) {
+        return new AutoUploadEncoder(
+                maxBytes,
+                List.of(new TiffG4UploadEncoder()),
+                List.of(new JpegUploadEncoder(.9f), new JpegUploadEncoder(.75f), new JpegUploadEncoder(.5f))
+        );
+    }
+
+    public static AutoUploadEncoder buildDefault() {
+        return buildDefault(DEFAULT_MAX_BYTES);
+    }
+
+    @Override
+    public EncodedImage encode(BufferedImage image) throws IOException {
+        EncodedImage smallest = null;
+        for (final var encoder : ImageWriters.isBinary(image) ? binaryEncoders : encoders) {
+            final var encoded = encoder.encode(image);
+            if (encoded.data().length <= maxBytes) {
+                return encoded;
+            }
+            if (smallest == null || encoded.data().length < smallest.data().length) {
+                smallest = encoded;
+            }
+        }
+        log.warn("could not encode image within {} bytes. uploading {} bytes", maxBytes, smallest.data().length);
+        return smallest;
+    }
+}
@@ -2,21 +2,37 @@ package de.niklasfi.aocr;
 
 import de.niklasfi.aocr.azure.dto.AnalyzeResult;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfwriter.COSWriter;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
 import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.font.PDSimpleFont;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
 import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
-import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+import org.apache.pdfbox.util.NumberFormatUtil;
 
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.List;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.DeflaterOutputStream;
 
 @Slf4j
 public class AzurePdfAnnotator {
@@ -26,27 +42,194 @@ public class AzurePdfAnnotator {
         addBufferedImageToPage(pdDocument, pdPage, bufferedImage);
     }
 
+    /**
+     * If the page image has a source image, that image is embedded as is. Otherwise, the decoded image is encoded
+     * losslessly.
+     */
     public void addPageToDocument(PDDocument pdDocument, PDFont font, AnnotatedImage annotatedImage) {
-        final var pdPage = blankPageFromBufferedImage(pdDocument, annotatedImage.bufferedImage());
-        addBufferedImageToPage(pdDocument, pdPage, annotatedImage.bufferedImage());
-        annotatedImage.analyzeResult().ifPresent(result ->
-            addAnalyzeResultsToPage(pdDocument, pdPage, font, result)
-        );
+        addPreparedPage(pdDocument, font, preparePage(font, annotatedImage));
+    }
+
+    /**
+     * Adds an invisible text layer to an existing page. The analyzed image is assumed to cover the visible area of the
+     * page, i.e. its crop box, as displayed after applying the page's rotation.
+     */
+    public void addTextLayerToPage(PDDocument pdDocument, PDPage pdPage, PDFont font, AnalyzeResult analyzeResult) {
+        // the page image is only needed by pages which are created from it
+        final var annotatedImage = new AnnotatedImage((PageImage) null, Optional.of(analyzeResult));
+        addPreparedTextLayer(pdDocument, pdPage, font, prepareTextLayer(font, PageGeometry.of(pdPage), annotatedImage));
+    }
+
+    /**
+     * Visible area of a page, copied from the page so that it can be used without accessing the document.
+     *
+     * @param cropBox  crop box of the page
+     * @param rotation rotation of the page in degrees, one of 0, 90, 180 and 270
+     */
+    public record PageGeometry(PDRectangle cropBox, int rotation) {
+        public static PageGeometry of(PDPage pdPage) {
+            final var cropBox = pdPage.getCropBox();
+            return new PageGeometry(
+                    new PDRectangle(
+                            cropBox.getLowerLeftX(),
+                            cropBox.getLowerLeftY(),
+                            cropBox.getWidth(),
+                            cropBox.getHeight()
+                    ),
+                    ((pdPage.getRotation() % 360) + 360) % 360
+            );
+        }
+    }
+
+    /**
+     * Image data which has been compressed ahead of time, and is embedded into the document as an image xobject.
+     *
+     * @param data             flate compressed samples
+     * @param width            width of the image in pixels
+     * @param height           height of the image in pixels
+     * @param bitsPerComponent bits per color component, 1 or 8
+     * @param colors           number of color components, 1 for gray or 3 for rgb
+     * @param predicted        whether the rows of data are encoded with png predictors
+     */
+    public record PreparedImage(byte[] data, int width, int height, int bitsPerComponent, int colors, boolean predicted) {
+    }
+
+    /**
+     * Everything of a page which can be computed without accessing the document it is added to.
+     *
+     * @param annotatedImage page the content was prepared for. Its page image may be null for text layers
+     * @param content        flate compressed content stream, or null if nothing is added to the page
+     * @param image          compressed page image, or null if the page image is embedded otherwise
+     * @param subsetText     text shown by content if the font is embedded as a subset, otherwise null
+     */
+    public record PreparedPage(AnnotatedImage annotatedImage, byte[] content, PreparedImage image, String subsetText) {
+    }
+
+    /**
+     * Prepares a new page showing the page image, with the text layer on top of it. Preparation does not access any
+     * document, so that different pages can be prepared concurrently. The page is added to a document by
+     * {@link #addPreparedPage(PDDocument, PDFont, PreparedPage)}.
+     */
+    public PreparedPage preparePage(PDFont font, AnnotatedImage annotatedImage) {
+        final var pageImage = annotatedImage.pageImage();
+        final var size = pageSize(pageImage.width(), pageImage.height());
+        final var content = new ContentBuilder();
+        content.drawImage(IMAGE_NAME, size.getWidth(), size.getHeight());
+        final var subsetText = annotatedImage.analyzeResult()
+                .map(result -> addAnalyzeResults(content, font, new PageGeometry(size, 0), result))
+                .orElse(null);
+        final var image = pageImage.source() == null ? prepareImage(pageImage.bufferedImage()) : null;
+        return new PreparedPage(annotatedImage, content.finish(), image, subsetText);
+    }
+
+    /**
+     * Prepares the text layer of an existing page, see {@link #preparePage(PDFont, AnnotatedImage)}. The layer is added
+     * to the page by {@link #addPreparedTextLayer(PDDocument, PDPage, PDFont, PreparedPage)}.
+     */
+    public PreparedPage prepareTextLayer(PDFont font, PageGeometry geometry, AnnotatedImage annotatedImage) {
+        if (annotatedImage.analyzeResult().isEmpty()) {
+            return new PreparedPage(annotatedImage, null, null, null);
+        }
+        final var content = new ContentBuilder();
+        final var subsetText = addAnalyzeResults(content, font, geometry, annotatedImage.analyzeResult().get());
+        return new PreparedPage(annotatedImage, content.finish(), null, subsetText);
+    }
+
+    /**
+     * Adds a page prepared by {@link #preparePage(PDFont, AnnotatedImage)} to the document. Pages are added in the
+     * order of the calls.
+     */
+    public void addPreparedPage(PDDocument pdDocument, PDFont font, PreparedPage preparedPage) {
+        final var pageImage = preparedPage.annotatedImage().pageImage();
+        final var pdPage = blankPage(pdDocument, pageImage.width(), pageImage.height());
+
+        final PDImageXObject pdImg;
+        if (pageImage.source() != null) {
+            pdImg = pageImage.source();
+        } else if (preparedPage.image() != null) {
+            pdImg = imageXObject(pdDocument, preparedPage.image());
+        } else {
+            try {
+                pdImg = LosslessFactory.createFromImage(pdDocument, pageImage.bufferedImage());
+            } catch (IOException e) {
+                throw new RuntimeException("could not encode image", e);
+            }
+        }
+
+        final var resources = new PDResources();
+        resources.put(IMAGE_NAME, pdImg);
+        if (preparedPage.annotatedImage().analyzeResult().isPresent()) {
+            addTextResources(pdDocument, resources, font, preparedPage);
+        }
+        pdPage.setResources(resources);
+        pdPage.getCOSObject().setItem(COSName.CONTENTS, flateStream(pdDocument, preparedPage.content()));
+    }
+
+    /**
+     * Appends a text layer prepared by {@link #prepareTextLayer(PDFont, PageGeometry, AnnotatedImage)} to the existing
+     * content of a page.
+     */
+    public void addPreparedTextLayer(PDDocument pdDocument, PDPage pdPage, PDFont font, PreparedPage preparedPage) {
+        if (preparedPage.content() == null) {
+            return;
+        }
+        var resources = pdPage.getResources();
+        if (resources == null) {
+            resources = new PDResources();
+            pdPage.setResources(resources);
+        }
+        addTextResources(pdDocument, resources, font, preparedPage);
+
+        // just like PDPageContentStream with resetContext, the existing content is wrapped in q / Q, so that the text
+        // layer starts with the initial graphics state
+        final var layer = flateStream(pdDocument, preparedPage.content());
+        final var contents = pdPage.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+        if (contents == null) {
+            pdPage.getCOSObject().setItem(COSName.CONTENTS, layer);
+            return;
+        }
+        final COSArray array;
+        if (contents instanceof COSArray existing) {
+            array = existing;
+        } else {
+            array = new COSArray();
+            array.add(contents);
+        }
+        array.add(0, plainStream(pdDocument, "q\n"));
+        array.add(plainStream(pdDocument, "Q\n"));
+        array.add(layer);
+        pdPage.getCOSObject().setItem(COSName.CONTENTS, array);
     }
 
     private PDPage blankPageFromBufferedImage(PDDocument pdDocument, BufferedImage bufferedImage) {
-        final var pdWidth = Math.round(bufferedImage.getWidth() * 72. / 72.);
-        final var pdHeight = Math.round(bufferedImage.getHeight() * 72. / 72.);
-        final var pageMediaBoxRect = new PDRectangle(pdWidth, pdHeight);
-        final var pdPage = new PDPage(pageMediaBoxRect);
+        return blankPage(pdDocument, bufferedImage.getWidth(), bufferedImage.getHeight());
+    }
+
+    private PDPage blankPage(PDDocument pdDocument, int width, int height) {
+        final var pdPage = new PDPage(pageSize(width, height));
         pdDocument.addPage(pdPage);
 
         return pdPage;
     }
 
+    private static PDRectangle pageSize(int width, int height) {
+        final var pdWidth = Math.round(width * 72. / 72.);
+        final var pdHeight = Math.round(height * 72. / 72.);
+        return new PDRectangle(pdWidth, pdHeight);
+    }
+
     private void addBufferedImageToPage(PDDocument pdDocument, PDPage pdPage, BufferedImage bufferedImage) {
+        final PDImageXObject pdImg;
+        try {
+            pdImg = LosslessFactory.createFromImage(pdDocument, bufferedImage);
+        } catch (IOException e) {
+            throw new RuntimeException("could not encode image", e);
+        }
+        addImageToPage(pdDocument, pdPage, pdImg);
+    }
+
+    private void addImageToPage(PDDocument pdDocument, PDPage pdPage, PDImageXObject pdImg) {
         try (final var cs = new PDPageContentStream(pdDocument, pdPage, PDPageContentStream.AppendMode.APPEND, true, true)) {
-            final var pdImg = LosslessFactory.createFromImage(pdDocument, bufferedImage);
             cs.drawImage(pdImg, 0, 0, pdPage.getMediaBox().getWidth(), pdPage.getMediaBox().getHeight());
         } catch (IOException e) {
             throw new RuntimeException("could not create page content stream", e);
@@ -63,157 +246,383 @@ public class AzurePdfAnnotator {
     private static final int BB_BL_Y = 7;
     private static final int FONT_SIZE = 12;
 
-    private String stripEncoding(String text, PDFont font) {
-        if (font instanceof final PDSimpleFont sf) {
-            StringBuilder sb = new StringBuilder();
-            for (int idx = 0; idx < text.length(); ++idx) {
-                if (sf.getEncoding().contains(text.charAt(idx))) {
-                    sb.append(text.charAt(idx));
-                } else {
-                    log.warn("cannot encode {}. skipping this char", text.codePointAt(idx));
+    // resource names used by the prepared content streams
+    private static final COSName FONT_NAME = COSName.getPDFName("AocrF");
+    private static final COSName GRAPHICS_STATE_NAME = COSName.getPDFName("AocrGS");
+    private static final COSName IMAGE_NAME = COSName.getPDFName("AocrIm");
+
+    /**
+     * @param wa width of the analyzed image
+     * @param ha height of the analyzed image
+     * @return transformation of azure image coordinates into pdf user space coordinates of the page
+     */
+    private static AffineTransform azurePdfAffineTransform(PageGeometry geometry, float wa, float ha) {
+        final var cropBox = geometry.cropBox();
+        final var rotation = geometry.rotation();
+
+        // width and height of the page as it is displayed
+        final var rotated = rotation == 90 || rotation == 270;
+        final var wp = rotated ? cropBox.getHeight() : cropBox.getWidth();
+        final var hp = rotated ? cropBox.getWidth() : cropBox.getHeight();
+        final var sx = wp / wa;
+        final var sy = hp / ha;
+
+        // see https://en.wikipedia.org/wiki/Affine_transformation
+        // for an unrotated page at the origin use
+        //
+        //      ( wa, 0 , 1 )           ( wp, hp, 1 )
+        // X := ( 0 , ha, 1 ) ,    Y := ( 0 , 0 , 1 )
+        //      ( 0 , 0 , 1 )           ( 0 , hp, 1 )
+        //
+        // solve Y = X . M for M ===> (X^-1) * Y = M
+        // M is the affine transformation matrix we are looking for. Rotated pages map the top left-hand corner of the
+        // image onto the corner of the crop box which is displayed top left, and the image axes onto the crop box's
+        // edges accordingly.
+        return switch (rotation) {
+            case 90 -> new AffineTransform(0, sx, sy, 0, cropBox.getLowerLeftX(), cropBox.getLowerLeftY());
+            case 180 -> new AffineTransform(-sx, 0, 0, sy, cropBox.getUpperRightX(), cropBox.getLowerLeftY());
+            case 270 -> new AffineTransform(0, -sx, -sy, 0, cropBox.getUpperRightX(), cropBox.getUpperRightY());
+            default -> new AffineTransform(sx, 0, 0, -sy, cropBox.getLowerLeftX(), cropBox.getUpperRightY());
+        };
+    }
+
+    /**
+     * @return the text shown, if font is embedded as a subset, otherwise null
+     */
+    private String addAnalyzeResults(ContentBuilder content, PDFont font, PageGeometry geometry, AnalyzeResult analyzeResult) {
+        content.setFont(FONT_NAME, FONT_SIZE);
+        content.setGraphicsState(GRAPHICS_STATE_NAME);
+
+        final var subsetText = font.willBeSubset() ? new StringBuilder() : null;
+
+        // reused for the corners of every line
+        final var pdfPoints = new float[8];
+        final var glyphTable = GlyphTable.of(font);
+
+        // https://stackoverflow.com/questions/17171815/get-the-font-height-of-a-character-in-pdfbox
+        final var baseTextScale = glyphTable.boundingBoxHeight() / 1000;
+        final var baseTextHeight = baseTextScale * FONT_SIZE;
+
+        for (final var readResult : analyzeResult.readResults()) {
+            // width and height of azure image
+            final var wa = readResult.width();
+            final var ha = readResult.height();
+
+            final var azurePdfAffineTransform = azurePdfAffineTransform(geometry, wa, ha);
+
+            for (final var line : readResult.lines()) {
+                final var strippedText = glyphTable.strip(font, line.text());
+
+                // corners of the bounding box in pdf coordinates, in the same layout as the bounding box
+                azurePdfAffineTransform.transform(line.boundingBox(), 0, pdfPoints, 0, 4);
+
+                // vector along the horizontal of pdf coordinates
+                final var vhX = (pdfPoints[BB_TR_X] - pdfPoints[BB_TL_X] + pdfPoints[BB_BR_X] - pdfPoints[BB_BL_X]) / 2;
+                final var vhY = (pdfPoints[BB_TR_Y] - pdfPoints[BB_TL_Y] + pdfPoints[BB_BR_Y] - pdfPoints[BB_BL_Y]) / 2;
+
+                // vector along the vertical of the pdf coordinates
+                final var vvX = (pdfPoints[BB_TL_X] - pdfPoints[BB_BL_X] + pdfPoints[BB_TR_X] - pdfPoints[BB_BR_X]) / 2;
+                final var vvY = (pdfPoints[BB_TL_Y] - pdfPoints[BB_BL_Y] + pdfPoints[BB_TR_Y] - pdfPoints[BB_BR_Y]) / 2;
+
+                // projection of vv onto vh
+                final var vhLengthSq = vhX * vhX + vhY * vhY;
+                final var vvPrjFactor = (vhX * vvX + vhY * vvY) / vhLengthSq;
+                // remainder after projection, a.k.a. height
+                final var targetHeight = (float) Math.hypot(vvX - vhX * vvPrjFactor, vvY - vhY * vvPrjFactor);
+
+                // length of vh is target width
+                final var targetWidth = (float) Math.sqrt(vhLengthSq);
+
+                // angle of vh with respect to the x-axis
+                final var angle = Math.atan2(vhY, vhX);
+                final var cos = (float) Math.cos(angle);
+                final var sin = (float) Math.sin(angle);
+
+                // https://stackoverflow.com/questions/13701017/calculation-string-width-in-pdfbox-seems-only-to-count-characters
+                // https://stackoverflow.com/questions/17171815/get-the-font-height-of-a-character-in-pdfbox
+                final var baseTextWidth = strippedText.width() / 1000 * FONT_SIZE;
+
+                if (baseTextWidth == 0) {
+                    continue;
                 }
-            }
 
-            return sb.toString();
-        } else {
-            StringBuilder sb = new StringBuilder();
-            for(int idx = 0; idx < text.length(); ++idx){
-                final var charStr = Character.toString(text.charAt(idx));
-                try {
-                    font.encode(charStr);
-                } catch (IllegalArgumentException e) {
-                    // cannot encode character.
-                    log.warn("cannot encode {}. skipping this char", text.codePointAt(idx));
+                final var scaleX = targetWidth / baseTextWidth;
+
+                if (baseTextHeight == 0) {
+                    continue;
+                }
+                final var scaleY = targetHeight / baseTextHeight;
+                // move text up a bit to compensate for the fact that the bottom of the text box does not correspond
+                // with the baseline of the text
+                final var translateY = -(1 - baseTextScale) * FONT_SIZE * scaleY;
+
+                if (!Float.isFinite(scaleX) || !Float.isFinite(scaleY)) {
+                    // degenerate bounding box
                     continue;
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
                 }
-                sb.append(charStr);
+
+                // scale the text to the size of the box, move it up by translateY, then rotate it by angle around
+                // the bottom left-hand corner of the box and move it there
+                content.showText(
+                        scaleX * cos,
+                        scaleX * sin,
+                        -scaleY * sin,
+                        scaleY * cos,
+                        pdfPoints[BB_BL_X] - translateY * sin,
+                        pdfPoints[BB_BL_Y] + translateY * cos,
+                        strippedText.encoded()
+                );
+                if (subsetText != null) {
+                    subsetText.append(strippedText.text());
+                }
             }
-            return sb.toString();
         }
+        return subsetText != null ? subsetText.toString() : null;
     }
 
-    private void addAnalyzeResultsToPage(PDDocument pdDocument, PDPage pdPage, PDFont font, AnalyzeResult analyzeResult) {
-        // width and height of pdf page
-        final var wp = pdPage.getMediaBox().getWidth();
-        final var hp = pdPage.getMediaBox().getHeight();
+    private void addTextResources(PDDocument pdDocument, PDResources resources, PDFont font, PreparedPage preparedPage) {
+        resources.put(FONT_NAME, font);
+
+        final var graphicsState = new PDExtendedGraphicsState();
+        graphicsState.setNonStrokingAlphaConstant(0.f);
+        resources.put(GRAPHICS_STATE_NAME, graphicsState);
+
+        if (preparedPage.subsetText() != null) {
+            // pdfbox only registers fonts for subsetting when they are set in a content stream
+            final var form = new PDAppearanceStream(pdDocument);
+            form.setResources(new PDResources());
+            try (final var cs = new PDPageContentStream(pdDocument, form, OutputStream.nullOutputStream())) {
+                cs.setFont(font, FONT_SIZE);
+            } catch (IOException e) {
+                throw new RuntimeException("could not register font for subsetting", e);
+            }
+            GlyphTable.of(font).addToSubset(font, preparedPage.subsetText());
+        }
+    }
 
-        try (final var cs = new PDPageContentStream(pdDocument, pdPage, PDPageContentStream.AppendMode.APPEND, true, true)) {
-            cs.setFont(font, FONT_SIZE);
-
-            PDExtendedGraphicsState graphicsState = new PDExtendedGraphicsState();
-            graphicsState.setNonStrokingAlphaConstant(0.f);
-            cs.setGraphicsStateParameters(graphicsState);
-
-            for (final var readResult : analyzeResult.readResults()) {
-                // width and height of azure image
-                final var wa = readResult.width();
-                final var ha = readResult.height();
-
-                // see https://en.wikipedia.org/wiki/Affine_transformation
-                // use
-                //
-                //      ( wa, 0 , 1 )           ( wp, hp, 1 )
-                // X := ( 0 , ha, 1 ) ,    Y := ( 0 , 0 , 1 )
-                //      ( 0 , 0 , 1 )           ( 0 , hp, 1 )
-                //
-                // solve Y = X . M for M ===> (X^-1) * Y = M
-                // M is the affine transformation matrix we are looking for
-
-                final var azurePdfAffineTransform = new AffineTransform(
-                        wp / wa, 0, // 0
-                        0, -hp / ha, // 0
-                        0, hp // 1
-                );
+    /**
+     * Writes the operators of a content stream, compressing them on the fly. Numbers are formatted like
+     * {@link PDPageContentStream} does.
+     */
+    private static final class ContentBuilder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DeflaterOutputStream os = new DeflaterOutputStream(bytes);
+        private final byte[] numberBuffer = new byte[32];
+
+        void drawImage(COSName name, float width, float height) {
+            write("q\n");
+            number(width);
+            write("0 0 ");
+            number(height);
+            write("0 0 cm\n");
+            name(name);
+            write("Do\nQ\n");
+        }
+
+        void setFont(COSName name, float size) {
+            name(name);
+            number(size);
+            write("Tf\n");
+        }
+
+        void setGraphicsState(COSName name) {
+            name(name);
+            write("gs\n");
+        }
+
+        void showText(float a, float b, float c, float d, float e, float f, byte[] encoded) {
+            write("BT\n");
+            number(a);
+            number(b);
+            number(c);
+            number(d);
+            number(e);
+            number(f);
+            write("Tm\nT*\n");
+            try {
+                COSWriter.writeString(encoded, os);
+            } catch (IOException ex) {
+                throw new RuntimeException("could not write content stream", ex);
+            }
+            write(" Tj\nET\n");
+        }
+
+        private void name(COSName name) {
+            try {
+                name.writePDF(os);
+            } catch (IOException e) {
+                throw new RuntimeException("could not write content stream", e);
+            }
+            write(" ");
+        }
+
+        private void number(float value) {
+            final var length = NumberFormatUtil.formatFloatFast(value, 5, numberBuffer);
+            if (length == -1) {
+                // very large or very small values
+                write(new BigDecimal(Float.toString(value)).setScale(5, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString());
+            } else {
+                write(numberBuffer, length);
+            }
+            write(" ");
+        }
 
-                for (final var line : readResult.lines()) {
-                    final var textStripped = stripEncoding(line.text(), font);
-                    final var bb = line.boundingBox();
-
-                    final var azurePoints = List.of(
-                            new Point2D.Float(bb.get(BB_TL_X).floatValue(), bb.get(BB_TL_Y).floatValue()),
-                            new Point2D.Float(bb.get(BB_TR_X).floatValue(), bb.get(BB_TR_Y).floatValue()),
-                            new Point2D.Float(bb.get(BB_BR_X).floatValue(), bb.get(BB_BR_Y).floatValue()),
-                            new Point2D.Float(bb.get(BB_BL_X).floatValue(), bb.get(BB_BL_Y).floatValue())
-                    );
-
-                    final var pdfPoints = azurePoints.stream()
-                            .map(point -> (Point2D.Float) azurePdfAffineTransform.transform(point, null))
-                            .toList();
-
-                    // vector along the horizontal of pdf coordinates
-                    final var vh = new Point2D.Float(
-                            (pdfPoints.get(1).x - pdfPoints.get(0).x + pdfPoints.get(2).x - pdfPoints.get(3).x) / 2,
-                            (pdfPoints.get(1).y - pdfPoints.get(0).y + pdfPoints.get(2).y - pdfPoints.get(3).y) / 2
-                    );
-
-                    // vector along the vertical of the pdf coordinates
-                    final var vv = new Point2D.Float(
-                            (pdfPoints.get(0).x - pdfPoints.get(3).x + pdfPoints.get(1).x - pdfPoints.get(2).x) / 2,
-                            (pdfPoints.get(0).y - pdfPoints.get(3).y + pdfPoints.get(1).y - pdfPoints.get(2).y) / 2
-                    );
-
-                    // projection of vv onto vh
-                    final var vvPrjFactor = (vh.x * vv.x + vh.y * vv.y) / (float) vh.distanceSq(0, 0);
-                    final var vvPrj = new Point2D.Float(vh.x * vvPrjFactor, vh.y * vvPrjFactor);
-                    // remainder after projection, a.k.a. height
-                    final var targetHeight = (float) new Point2D.Float(vv.x - vvPrj.x, vv.y - vvPrj.y).distance(0, 0);
-
-                    // length of vh is target width
-                    final var targetWidth = (float) new Point2D.Float(vh.x, vh.y).distance(0, 0);
-
-                    // angle of vh with respect to the x-axis
-                    final var angle = Math.atan2(vh.y, vh.x);
-
-                    // bottom left-hand corner of pdf text box
-                    final var offset = pdfPoints.get(3);
-
-                    // https://stackoverflow.com/questions/13701017/calculation-string-width-in-pdfbox-seems-only-to-count-characters
-                    // https://stackoverflow.com/questions/17171815/get-the-font-height-of-a-character-in-pdfbox
-                    final var baseTextWidth = font.getStringWidth(textStripped) / 1000 * FONT_SIZE;
-
-                    if (baseTextWidth == 0) {
-                        continue;
-                    }
-
-                    final var scaleX = targetWidth / baseTextWidth;
-
-                    // https://stackoverflow.com/questions/17171815/get-the-font-height-of-a-character-in-pdfbox
-                    final var baseTextScale = font.getFontDescriptor().getFontBoundingBox().getHeight() / 1000;
-                    final var baseTextHeight = baseTextScale * FONT_SIZE;
-
-                    if (baseTextHeight == 0) {
-                        continue;
-                    }
-                    final var scaleY = targetHeight / baseTextHeight;
-                    // move text up a bit to compensate for the fact that the bottom of the text box does not correspond
-                    // with the baseline of the text
-                    final var translateY = -(1 - baseTextScale) * FONT_SIZE * scaleY;
-
-                    final var sizeScale = Matrix.getScaleInstance(scaleX, scaleY);
-                    final var sizeTranslate = Matrix.getTranslateInstance(0, translateY);
-                    final var originTransform = Matrix.getRotateInstance(angle, offset.x, offset.y);
-
-                    // create total transform by combining those defined above
-                    final var totalTransform = originTransform.clone();
-                    try {
-                        totalTransform.concatenate(sizeTranslate);
-                        totalTransform.concatenate(sizeScale);
-                    } catch (IllegalArgumentException e){
-                        throw e;
-                    }
-
-                    // actually draw the line
-                    cs.beginText();
-                    cs.setTextMatrix(totalTransform);
-                    cs.newLine();
-                    cs.showText(textStripped);
-                    cs.endText();
+        private void write(String str) {
+            final var data = str.getBytes(StandardCharsets.US_ASCII);
+            write(data, data.length);
+        }
+
+        private void write(byte[] data, int length) {
+            try {
+                os.write(data, 0, length);
+            } catch (IOException e) {
+                throw new RuntimeException("could not write content stream", e);
+            }
+        }
+
+        byte[] finish() {
+            try {
+                os.close();
+            } catch (IOException e) {
+                throw new RuntimeException("could not write content stream", e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Compresses the samples of an image the way {@link LosslessFactory} does for images without transparency.
+     *
+     * @return the compressed image, or null if the image has an alpha channel
+     */
+    private static PreparedImage prepareImage(BufferedImage bufferedImage) {
+        if (bufferedImage.getColorModel().hasAlpha()) {
+            // needs a soft mask, which is left to LosslessFactory
+            return null;
+        }
+        final var binary = bufferedImage.getType() == BufferedImage.TYPE_BYTE_BINARY
+                && bufferedImage.getColorModel().getPixelSize() == 1;
+        final var colors = bufferedImage.getType() == BufferedImage.TYPE_BYTE_GRAY || binary ? 1 : 3;
+
+        final var bytes = new ByteArrayOutputStream();
+        try (final var os = new DeflaterOutputStream(bytes)) {
+            if (binary) {
+                writeBinaryRows(bufferedImage, os);
+            } else {
+                writePredictedRows(bufferedImage, colors, os);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not encode image", e);
+        }
+        return new PreparedImage(
+                bytes.toByteArray(),
+                bufferedImage.getWidth(),
+                bufferedImage.getHeight(),
+                binary ? 1 : 8,
+                colors,
+                !binary
+        );
+    }
+
+    /**
+     * Writes one bit per pixel, 0 being black. Rows are padded to full bytes.
+     */
+    private static void writeBinaryRows(BufferedImage bufferedImage, OutputStream os) throws IOException {
+        final var width = bufferedImage.getWidth();
+        final var raster = bufferedImage.getRaster();
+        final var samples = new int[width];
+        final var row = new byte[(width + 7) / 8];
+        for (int y = 0; y < bufferedImage.getHeight(); y++) {
+            Arrays.fill(row, (byte) 0);
+            raster.getSamples(0, y, width, 1, 0, samples);
+            for (int x = 0; x < width; x++) {
+                if (samples[x] != 0) {
+                    row[x >> 3] |= (byte) (0x80 >>> (x & 7));
+                }
+            }
+            os.write(row);
+        }
+    }
+
+    /**
+     * Writes 8 bits per color component, encoding every row with the png up predictor, i.e. every byte is stored as
+     * the difference to the byte above it.
+     *
+     * @param colors 1 to write the gray samples of the image, 3 to write its rgb values
+     */
+    private static void writePredictedRows(BufferedImage bufferedImage, int colors, OutputStream os) throws IOException {
+        final var width = bufferedImage.getWidth();
+        final var raster = bufferedImage.getRaster();
+        final var samples = new int[width];
+        var previous = new byte[width * colors];
+        var row = new byte[width * colors];
+        final var predicted = new byte[width * colors + 1];
+        predicted[0] = 2;
+        for (int y = 0; y < bufferedImage.getHeight(); y++) {
+            if (colors == 1) {
+                raster.getSamples(0, y, width, 1, 0, samples);
+                for (int x = 0; x < width; x++) {
+                    row[x] = (byte) samples[x];
+                }
+            } else {
+                bufferedImage.getRGB(0, y, width, 1, samples, 0, width);
+                for (int x = 0; x < width; x++) {
+                    row[3 * x] = (byte) (samples[x] >> 16);
+                    row[3 * x + 1] = (byte) (samples[x] >> 8);
+                    row[3 * x + 2] = (byte) samples[x];
                 }
             }
+            for (int i = 0; i < row.length; i++) {
+                predicted[i + 1] = (byte) (row[i] - previous[i]);
+            }
+            os.write(predicted);
+            final var swap = previous;
+            previous = row;
+            row = swap;
+        }
+    }
+
+    private static PDImageXObject imageXObject(PDDocument pdDocument, PreparedImage image) {
+        final var stream = flateStream(pdDocument, image.data());
+        if (image.predicted()) {
+            final var decodeParms = new COSDictionary();
+            decodeParms.setInt(COSName.PREDICTOR, 15);
+            decodeParms.setInt(COSName.COLORS, image.colors());
+            decodeParms.setInt(COSName.BITS_PER_COMPONENT, image.bitsPerComponent());
+            decodeParms.setInt(COSName.COLUMNS, image.width());
+            stream.setItem(COSName.DECODE_PARMS, decodeParms);
+        }
+        final PDImageXObject pdImg;
+        try {
+            pdImg = new PDImageXObject(new PDStream(stream), null);
         } catch (IOException e) {
-            throw new RuntimeException("could not create page content stream", e);
+            throw new RuntimeException("could not create image", e);
+        }
+        pdImg.setWidth(image.width());
+        pdImg.setHeight(image.height());
+        pdImg.setBitsPerComponent(image.bitsPerComponent());
+        pdImg.setColorSpace(image.colors() == 1 ? PDDeviceGray.INSTANCE : PDDeviceRGB.INSTANCE);
+        return pdImg;
+    }
+
+    private static COSStream flateStream(PDDocument pdDocument, byte[] data) {
+        final var stream = pdDocument.getDocument().createCOSStream();
+        try (final var os = stream.createRawOutputStream()) {
+            os.write(data);
+        } catch (IOException e) {
+            throw new RuntimeException("could not create stream", e);
+        }
+        stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+        return stream;
+    }
+
+    private static COSStream plainStream(PDDocument pdDocument, String content) {
+        final var stream = pdDocument.getDocument().createCOSStream();
+        try (final var os = stream.createOutputStream()) {
+            os.write(content.getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new RuntimeException("could not create stream", e);
         }
+        return stream;
     }
 }
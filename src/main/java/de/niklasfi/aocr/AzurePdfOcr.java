@@ -1,43 +1,71 @@
 package de.niklasfi.aocr;
 
-import de.niklasfi.aocr.azure.api.AzureApiAdapter;
+import de.niklasfi.aocr.azure.api.AzureReadApi;
+import de.niklasfi.aocr.azure.core.concurrent.CloseableReentrantLock;
+import de.niklasfi.aocr.azure.core.concurrent.ResourceLock;
 import de.niklasfi.aocr.azure.dto.AnalyzeResult;
 import de.niklasfi.aocr.azure.dto.ReadResultHeader;
 import de.niklasfi.aocr.azure.dto.Status;
+import de.niklasfi.aocr.jfr.OcrEvents;
+import de.niklasfi.aocr.jfr.PageContext;
+import de.niklasfi.aocr.metrics.OcrMetrics;
 import java.util.function.Function;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.action.PDActionGoTo;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
 
 import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.Duration;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 import org.apache.pdfbox.pdmodel.font.PDFont;
 
 @Slf4j
 public class AzurePdfOcr {
-    private final AzureApiAdapter apiAdapter;
+    private final AzureReadApi apiAdapter;
     private final PdfImageRetriever pdfImageRetriever;
     private final FileUtil fileUtil;
     private final Function<PDDocument, PDFont> fontLoader;
     private final AzurePdfOcrParameters parameters;
 
     public AzurePdfOcr(
-            AzureApiAdapter apiAdapter,
+            AzureReadApi apiAdapter,
         PdfImageRetriever pdfImageRetriever,
         FileUtil fileUtil,
         Function<PDDocument, PDFont> fontLoader,
         AzurePdfOcrParameters parameters
     ){
+        if (parameters.uploadEncoder() == null && parameters.pdfPagesPerRequest() == 0) {
+            throw new IllegalArgumentException("an upload encoder is required unless pdf documents are submitted");
+        }
         this.apiAdapter = apiAdapter;
         this.pdfImageRetriever= pdfImageRetriever;
         this.fileUtil = fileUtil;
@@ -46,7 +74,7 @@ public class AzurePdfOcr {
     }
 
     public AzurePdfOcr(
-            AzureApiAdapter apiAdapter,
+            AzureReadApi apiAdapter,
             PdfImageRetriever pdfImageRetriever,
             FileUtil fileUtil,
             Function<PDDocument, PDFont> fontLoader
@@ -65,103 +93,689 @@ public class AzurePdfOcr {
     }
 
     public PdfAndAnnotations ocrGetAnalyzeResults(byte[] inputPdf) {
-        final var run = new AzurePdfAnnotator();
+        final var os = new ByteArrayOutputStream();
+        final var analyzeResults = ocrGetAnalyzeResults(new RandomAccessReadBuffer(inputPdf), os);
+        return new PdfAndAnnotations(os.toByteArray(), analyzeResults);
+    }
 
+    /**
+     * Reads the input pdf from a file and writes the output pdf to a file, without holding either of them in memory.
+     */
+    public List<AnalyzeResult> ocrGetAnalyzeResults(Path inputPdf, Path outputPdf) {
+        final var journal = parameters.journalFactory() != null
+                ? parameters.journalFactory().open(inputPdf, outputPdf)
+                : null;
+
+        final List<AnalyzeResult> analyzeResults;
         try (
-                final var pdDocIn = Loader.loadPDF(inputPdf);
-                final var pdDocOut = new PDDocument();
-                final var os = new ByteArrayOutputStream()
+                final var input = fileUtil.openRandomAccess(inputPdf);
+                final var output = fileUtil.openOutputStream(outputPdf.toString())
         ) {
-            // load font
-            final var font = fontLoader.apply(pdDocOut);
-
-            // process pages
-            final var analyzeResults = pdfImageRetriever
-                    // get images
-                    .getImages(pdDocIn)
-                    // process using azure
-                    .map(pageContainer -> {
-                        final var contImgOpt = pageContainer.data();
-                        if (contImgOpt.isEmpty()) {
-                            log.error("pdfImageRetriever failed to get image for page {}", pageContainer.page());
-                            return new PageContainer<>(pageContainer.page(), Optional.<AnnotatedImage>empty());
-                        }
-                        final var contImg = contImgOpt.get();
-
-                        final byte[] png;
-                        try (final var is = new ByteArrayOutputStream()) {
-                            ImageIO.write(contImg, "png", is);
-                            png = is.toByteArray();
-                        } catch (IOException e) {
-                            log.error("failed to generate png image from BufferedImage");
-                            return new PageContainer<>(
-                                    pageContainer.page(),
-                                    Optional.of(new AnnotatedImage(contImg, Optional.empty()))
-                            );
-                        }
-                        final ReadResultHeader resultHeader;
-                        try {
-                            final var loc = apiAdapter.waitAnalyze(
-                                    png,
-                                    ContentType.IMAGE_PNG,
-                                    parameters.language(),
-                                    parameters.timeoutAnalyze()
-                            );
-                            resultHeader = apiAdapter.waitResult(loc, parameters.timeoutResult());
-                        } catch (IOException e) {
-                            log.error("azure api call failed. not adding annotations to page {}", pageContainer.page());
-                            return new PageContainer<>(
-                                    pageContainer.page(),
-                                    Optional.of(new AnnotatedImage(contImg, Optional.empty()))
-                            );
-                        }
-                        if (resultHeader != null && resultHeader.status() == Status.SUCCEEDED) {
-                            return new PageContainer<>(
-                                    pageContainer.page(),
-                                    Optional.of(new AnnotatedImage(contImg, Optional.of(resultHeader.analyzeResult())))
-                            );
-                        }
-                        log.error("azure api call did not return results. not adding annotations to page {}", pageContainer.page());
-                        return new PageContainer<>(
+            analyzeResults = ocrGetAnalyzeResults(input, output, journal, inputPdf.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+        // the output is complete, there is nothing left to resume
+        if (journal != null) {
+            journal.delete();
+        }
+        return analyzeResults;
+    }
+
+    /**
+     * @param inputPdf  source of the input pdf. It is closed once processing has finished.
+     * @param outputPdf stream the output pdf is written to. It is not closed.
+     */
+    public List<AnalyzeResult> ocrGetAnalyzeResults(RandomAccessRead inputPdf, OutputStream outputPdf) {
+        return ocrGetAnalyzeResults(inputPdf, outputPdf, null, null);
+    }
+
+    /**
+     * @param journal journal to resume from and record progress in, may be null
+     * @param input   path of the input file for diagnostics, may be null
+     */
+    private List<AnalyzeResult> ocrGetAnalyzeResults(
+            RandomAccessRead inputPdf,
+            OutputStream outputPdf,
+            OcrJournal journal,
+            String input
+    ) {
+        final var documentEvent = new OcrEvents.DocumentEvent();
+        documentEvent.begin();
+        // ties the events of all pages to the document
+        final var documentId = UUID.randomUUID().toString();
+
+        final var streamCache = parameters.lowMemory()
+                ? IOUtils.createTempFileOnlyStreamCache()
+                : IOUtils.createMemoryOnlyStreamCache();
+
+        final List<AnalyzeResult> analyzeResults;
+        if (parameters.overlay()) {
+            try (final var pdDoc = Loader.loadPDF(inputPdf, "", null, null, streamCache)) {
+                // the output is written unencrypted, just like the documents created in raster mode
+                pdDoc.setAllSecurityToBeRemoved(true);
+                analyzeResults = processPages(pdDoc, pdDoc, journal, documentId);
+                save(pdDoc, outputPdf, documentId);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            try (
+                    final var pdDocIn = Loader.loadPDF(inputPdf, "", null, null, streamCache);
+                    final var pdDocOut = new PDDocument(streamCache)
+            ) {
+                analyzeResults = processPages(pdDocIn, pdDocOut, journal, documentId);
+                save(pdDocOut, outputPdf, documentId);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        if (documentEvent.shouldCommit()) {
+            documentEvent.documentId = documentId;
+            documentEvent.input = input;
+            documentEvent.pages = analyzeResults.size();
+            documentEvent.commit();
+        }
+        return analyzeResults;
+    }
+
+    private void save(PDDocument pdDoc, OutputStream outputPdf, String documentId) throws IOException {
+        final var event = new OcrEvents.SaveEvent();
+        event.begin();
+        final var begin = System.nanoTime();
+        pdDoc.save(outputPdf);
+        parameters.metrics().recordStage(OcrMetrics.Stage.SAVE, System.nanoTime() - begin);
+        if (event.shouldCommit()) {
+            event.documentId = documentId;
+            event.commit();
+        }
+    }
+
+    /**
+     * @param pdDocOut document the pages are added to, or pdDocIn itself in overlay mode
+     */
+    private List<AnalyzeResult> processPages(
+            PDDocument pdDocIn,
+            PDDocument pdDocOut,
+            OcrJournal journal,
+            String documentId
+    ) {
+        final var annotator = new AzurePdfAnnotator();
+        final var font = fontLoader.apply(pdDocOut);
+        final var metrics = parameters.metrics();
+        final var analyzeResults = new ArrayList<AnalyzeResult>();
+
+        // a permit is taken before a page is retrieved and returned once it has been added to the output document
+        final var inFlight = new Semaphore(parameters.pagesInFlight());
+
+        // pdfbox documents are not thread safe, and objects of the input document are parsed lazily while they are
+        // accessed. If input and output are the same document, retrieval and annotation must not overlap.
+        final var documentLock = new CloseableReentrantLock();
+        final var sharedDocument = pdDocIn == pdDocOut;
+
+        try (
+                // null if a shared executor was configured. null resources are not closed
+                final var ownAnalyzeExecutor = parameters.analyzeExecutor() == null
+                        ? Executors.newFixedThreadPool(parameters.pagesInFlight())
+                        : null;
+                final var annotateExecutor = Executors.newSingleThreadExecutor()
+        ) {
+            final var analyzeExecutor = ownAnalyzeExecutor != null ? ownAnalyzeExecutor : parameters.analyzeExecutor();
+
+            // each page is annotated only after its predecessor, so output pages keep their original order
+            CompletableFuture<Void> annotated = CompletableFuture.completedFuture(null);
+
+            // pages which already carry text are detected before their image would be retrieved, so that it is not
+            // retrieved for nothing. Each page is only checked once, as chunks look ahead at the pages they would cover
+            final var textPages = new BitSet();
+            final var checkedPages = new BitSet();
+            final var textLayerDetector = parameters.textLayerDetector();
+            final IntPredicate needsOcr = page -> {
+                if (!checkedPages.get(page)) {
+                    checkedPages.set(page);
+                    if (textLayerDetector != null && textLayerDetector.hasText(pdDocIn, page)) {
+                        textPages.set(page);
+                    }
+                }
+                return !textPages.get(page);
+            };
+            // pages which are submitted as pdf documents only need an image if a new page is created from it
+            final var submitPdf = parameters.pdfPagesPerRequest() > 0;
+            // retrieving images happens lazily on this thread while iterating
+            final var pages = submitPdf && sharedDocument
+                    ? IntStream.range(0, pdDocIn.getNumberOfPages())
+                            .mapToObj(page -> {
+                                needsOcr.test(page);
+                                return new PageContainer<>(page, Optional.<PageImage>empty());
+                            })
+                            .iterator()
+                    : pdfImageRetriever.getPageImages(pdDocIn, needsOcr).iterator();
+            PdfChunk chunk = null;
+            while (true) {
+                inFlight.acquireUninterruptibly();
+                final long started;
+                final PageContainer<Optional<PageImage>> pageContainer;
+                final PageContext context;
+                final AzurePdfAnnotator.PageGeometry geometry;
+                final boolean hasText;
+                final PDPage textPage;
+                try (final var ignored = lockIf(documentLock, sharedDocument)) {
+                    // the image of the next page is retrieved by hasNext already
+                    final var retrieveEvent = new OcrEvents.RetrieveEvent();
+                    retrieveEvent.begin();
+                    started = System.nanoTime();
+                    if (annotated.isCompletedExceptionally() || !pages.hasNext()) {
+                        break;
+                    }
+                    pageContainer = pages.next();
+                    metrics.recordStage(OcrMetrics.Stage.RETRIEVE, System.nanoTime() - started);
+                    context = new PageContext(documentId, pageContainer.page());
+                    if (retrieveEvent.shouldCommit()) {
+                        retrieveEvent.setContext(context);
+                        retrieveEvent.succeeded = pageContainer.data().isPresent();
+                        retrieveEvent.commit();
+                    }
+                    // the text layer of an existing page is prepared without accessing the document
+                    geometry = sharedDocument
+                            ? AzurePdfAnnotator.PageGeometry.of(pdDocIn.getPage(pageContainer.page()))
+                            : null;
+                    hasText = textPages.get(pageContainer.page());
+                    // pages with text are passed on as they are. In overlay mode they are already part of the output
+                    textPage = hasText && !sharedDocument ? detachPage(pdDocIn.getPage(pageContainer.page())) : null;
+                    if (submitPdf && !hasText && (chunk == null || !chunk.contains(pageContainer.page()))) {
+                        chunk = splitChunk(pdDocIn, pageContainer.page(), needsOcr, context);
+                    }
+                }
+                final var pageChunk = chunk;
+                metrics.recordPageStarted();
+
+                // analyzing and preparing the content of the output page happen concurrently for different pages.
+                // Only attaching the prepared content modifies the output document
+                final var prepared = hasText
+                        ? CompletableFuture.completedFuture(new PageContainer<>(
                                 pageContainer.page(),
-                                Optional.of(new AnnotatedImage(contImg, Optional.empty()))
-                        );
-                    })
-                    .map(pageContainer -> {
-                        if (pageContainer.data().isPresent()) {
-                            run.addPageToDocument(pdDocOut, font, pageContainer.data().get());
+                                Optional.<AzurePdfAnnotator.PreparedPage>empty()
+                        ))
+                        : CompletableFuture.supplyAsync(() -> {
+                            try (final var scope = context.enter()) {
+                                return preparePage(annotator, font, geometry, analyzePage(pageContainer, journal, pageChunk));
+                            }
+                        }, analyzeExecutor);
+                annotated = annotated.thenCombineAsync(prepared, (ignored, preparedPage) -> {
+                    final var annotateEvent = new OcrEvents.AnnotateEvent();
+                    annotateEvent.begin();
+                    final var begin = System.nanoTime();
+                    try (final var lock = lockIf(documentLock, sharedDocument)) {
+                        if (hasText) {
+                            if (textPage != null) {
+                                pdDocOut.addPage(textPage);
+                            }
+                            analyzeResults.add(null);
                         } else {
-                            log.error("skipping page {} in output generation as we don't have a source image", pageContainer.page());
+                            annotatePage(annotator, pdDocOut, sharedDocument, font, preparedPage, analyzeResults);
                         }
-                        return pageContainer.data()
-                                .orElse(null);
-                    })
-                    // filter out all missing images
-                    .filter(Objects::nonNull)
-                    // add null values, if annotation result is not present
-                    .map(a -> a.analyzeResult().orElse(null))
-                    .collect(Collectors.toList());
-            pdDocOut.save(os);
-            return new PdfAndAnnotations(os.toByteArray(), analyzeResults);
+                    }
+                    final var end = System.nanoTime();
+                    metrics.recordStage(OcrMetrics.Stage.ANNOTATE, end - begin);
+                    metrics.recordStage(OcrMetrics.Stage.PAGE, end - started);
+                    if (annotateEvent.shouldCommit()) {
+                        annotateEvent.setContext(context);
+                        annotateEvent.hasResult = preparedPage.data()
+                                .flatMap(page -> page.annotatedImage().analyzeResult())
+                                .isPresent();
+                        annotateEvent.commit();
+                    }
+                    return null;
+                }, annotateExecutor);
+                annotated.whenComplete((ignored, e) -> {
+                    metrics.recordPageFinished();
+                    inFlight.release();
+                });
+            }
+            annotated.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return analyzeResults;
+    }
+
+    /**
+     * Copies a page of the input document, so that it can be added to the output document as it is. Attributes which
+     * the page inherits from the page tree of the input are resolved, and references of its annotations to pages of
+     * the input are dropped, just like {@link org.apache.pdfbox.multipdf.Splitter} does. The content of the page is
+     * only read when the output document is saved.
+     */
+    private static PDPage detachPage(PDPage page) {
+        final var copy = new PDPage(new COSDictionary(page.getCOSObject()));
+        copy.getCOSObject().removeItem(COSName.PARENT);
+        // article beads refer to the threads of the input document
+        copy.getCOSObject().removeItem(COSName.getPDFName("B"));
+        copy.setMediaBox(page.getMediaBox());
+        copy.setCropBox(page.getCropBox());
+        copy.setRotation(page.getRotation());
+        copy.setResources(page.getResources());
+        try {
+            for (final var annotation : copy.getAnnotations()) {
+                if (annotation instanceof PDAnnotationLink link) {
+                    var destination = link.getDestination();
+                    if (destination == null && link.getAction() instanceof PDActionGoTo goTo) {
+                        destination = goTo.getDestination();
+                    }
+                    if (destination instanceof PDPageDestination pageDestination) {
+                        pageDestination.setPage(null);
+                    }
+                }
+                annotation.setPage(null);
+            }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            log.warn("could not process annotations of page. dropping them", e);
+            copy.getCOSObject().removeItem(COSName.ANNOTS);
+        }
+        return copy;
+    }
+
+    private static ResourceLock lockIf(CloseableReentrantLock lock, boolean condition) {
+        return condition ? lock.lockAsResource() : () -> {};
+    }
+
+    /**
+     * Splits the pages starting at firstPage off the input document, so that they are submitted together. The chunk
+     * ends before the next page which does not need ocr, as such pages are passed on as they are.
+     */
+    private PdfChunk splitChunk(PDDocument pdDocIn, int firstPage, IntPredicate needsOcr, PageContext context) {
+        final var maxPageCount = Math.min(parameters.pdfPagesPerRequest(), pdDocIn.getNumberOfPages() - firstPage);
+        var pageCount = 1;
+        while (pageCount < maxPageCount && needsOcr.test(firstPage + pageCount)) {
+            pageCount++;
+        }
+        final var event = new OcrEvents.EncodeEvent();
+        event.begin();
+        final var begin = System.nanoTime();
+        PdfChunk chunk;
+        try {
+            chunk = PdfChunk.split(pdDocIn, firstPage, pageCount);
+        } catch (IOException e) {
+            log.error("failed to split pages {} to {} off the input pdf for upload", firstPage, firstPage + pageCount - 1, e);
+            chunk = new PdfChunk(firstPage, pageCount, null);
+        }
+        parameters.metrics().recordStage(OcrMetrics.Stage.ENCODE, System.nanoTime() - begin);
+        if (event.shouldCommit()) {
+            event.setContext(context);
+            event.contentType = ContentType.APPLICATION_PDF.getMimeType();
+            event.size = chunk.size();
+            event.commit();
+        }
+        return chunk;
+    }
+
+    /**
+     * @param chunk pages the page is submitted together with as a pdf document, or null to submit the page image
+     */
+    private PageContainer<Optional<AnnotatedImage>> analyzePage(
+            PageContainer<Optional<PageImage>> pageContainer,
+            OcrJournal journal,
+            PdfChunk chunk
+    ) {
+        final var pageImageOpt = pageContainer.data();
+        // the text layer of an existing page does not depend on the page image, if the page is submitted as pdf
+        if (pageImageOpt.isEmpty() && (chunk == null || !parameters.overlay())) {
+            log.error("pdfImageRetriever failed to get image for page {}", pageContainer.page());
+            return new PageContainer<>(pageContainer.page(), Optional.empty());
+        }
+        final var pageImage = pageImageOpt.orElse(null);
+
+        if (journal != null) {
+            // the operations of chunks are not journaled, as they cover several pages
+            final var resumed = chunk != null
+                    ? journal.completedResult(pageContainer.page())
+                    : resume(pageContainer.page(), journal);
+            if (resumed.isPresent()) {
+                return new PageContainer<>(
+                        pageContainer.page(),
+                        Optional.of(new AnnotatedImage(pageImage, resumed))
+                );
+            }
+        }
+
+        if (chunk != null) {
+            final var result = chunk.result(pageContainer.page(), pdf -> analyzePdf(chunk, pdf));
+            if (journal != null && result.isPresent()) {
+                journal.recordCompleted(pageContainer.page(), result.get());
+            }
+            return new PageContainer<>(pageContainer.page(), Optional.of(new AnnotatedImage(pageImage, result)));
+        }
+
+        return new PageContainer<>(
+                pageContainer.page(),
+                Optional.of(new AnnotatedImage(pageImage, analyzeImage(pageContainer.page(), pageImage, journal)))
+        );
+    }
+
+    /**
+     * Skips blank pages and reuses the results of duplicates if a {@link PageDeduplicator} is configured, and
+     * uploads the page image otherwise.
+     */
+    private Optional<AnalyzeResult> analyzeImage(int page, PageImage pageImage, OcrJournal journal) {
+        final var deduplicator = parameters.pageDeduplicator();
+        final var signature = deduplicator != null ? signature(page, pageImage) : null;
+        if (signature == null) {
+            return uploadImage(page, pageImage, journal);
+        }
+        if (deduplicator.isBlank(signature)) {
+            log.info("page {} is blank. not analyzing it", page);
+            return Optional.empty();
+        }
+
+        final var digest = deduplicator.matching() == PageDeduplicator.Matching.IDENTICAL
+                ? PageDeduplicator.digest(pageImage)
+                : null;
+        final var own = new CompletableFuture<Optional<AnalyzeResult>>();
+        final var earlier = deduplicator.findOrRegister(signature, digest, own);
+        if (earlier.isPresent()) {
+            final var result = earlier.get().join();
+            if (result.isPresent()) {
+                log.info("page {} is a duplicate of an earlier page. reusing its result", page);
+                if (journal != null) {
+                    journal.recordCompleted(page, result.get());
+                }
+                return result;
+            }
+            // the earlier page could not be analyzed
+            return uploadImage(page, pageImage, journal);
+        }
+        // duplicates which arrive in the meantime wait for this page
+        Optional<AnalyzeResult> result = Optional.empty();
+        try {
+            result = uploadImage(page, pageImage, journal);
+            return result;
+        } finally {
+            own.complete(result);
+        }
+    }
+
+    /**
+     * @return the signature of the page image, or null if it could not be computed
+     */
+    private PageSignature signature(int page, PageImage pageImage) {
+        final var event = new OcrEvents.SignatureEvent();
+        event.begin();
+        final var begin = System.nanoTime();
+        final PageSignature signature;
+        try {
+            // images which are uploaded in their original encoding have not been decoded
+            signature = pageImage.bufferedImage() != null
+                    ? PageSignature.of(pageImage.bufferedImage())
+                    : PageSignature.of(pageImage.upload(), pageImage.width(), pageImage.height());
+        } catch (IOException e) {
+            log.warn("could not compute signature of page {}. analyzing it", page, e);
+            return null;
+        }
+        parameters.metrics().recordStage(OcrMetrics.Stage.SIGNATURE, System.nanoTime() - begin);
+        if (event.shouldCommit()) {
+            event.setContext(PageContext.current());
+            event.inkCoverage = signature.inkCoverage();
+            event.commit();
         }
+        return signature;
+    }
+
+    private Optional<AnalyzeResult> uploadImage(int page, PageImage pageImage, OcrJournal journal) {
+        final var scaler = parameters.uploadScaler();
+        final EncodedImage upload;
+        if (pageImage.upload() != null && (scaler == null || !scaler.exceeds(pageImage.width(), pageImage.height()))) {
+            upload = pageImage.upload();
+        } else {
+            try {
+                final var image = scaledImage(pageImage);
+                final var event = new OcrEvents.EncodeEvent();
+                event.begin();
+                final var begin = System.nanoTime();
+                upload = parameters.uploadEncoder().encode(image);
+                parameters.metrics().recordStage(OcrMetrics.Stage.ENCODE, System.nanoTime() - begin);
+                if (event.shouldCommit()) {
+                    event.setContext(PageContext.current());
+                    event.contentType = upload.contentType().getMimeType();
+                    event.size = upload.data().length;
+                    event.commit();
+                }
+            } catch (IOException e) {
+                log.error("failed to encode image of page {} for upload", page, e);
+                return Optional.empty();
+            }
+        }
+        final var cache = parameters.analyzeResultCache();
+        final var cacheKey = cache != null ? AnalyzeResultCache.key(upload.data(), parameters.language()) : null;
+        if (cache != null) {
+            final var cached = cache.get(cacheKey);
+            if (cached.isPresent()) {
+                return cached;
+            }
+        }
+
+        final ReadResultHeader resultHeader;
+        try {
+            final var loc = apiAdapter.waitAnalyze(
+                    upload.data(),
+                    upload.contentType(),
+                    parameters.language(),
+                    parameters.timeoutAnalyze()
+            );
+            if (journal != null) {
+                journal.recordSubmitted(page, loc);
+            }
+            resultHeader = apiAdapter.waitResult(loc, parameters.timeoutResult());
+        } catch (IOException e) {
+            log.error("azure api call failed. not adding annotations to page {}", page);
+            return Optional.empty();
+        }
+        if (resultHeader != null && resultHeader.status() == Status.SUCCEEDED) {
+            if (cache != null) {
+                cache.put(cacheKey, resultHeader.analyzeResult());
+            }
+            if (journal != null) {
+                journal.recordCompleted(page, resultHeader.analyzeResult());
+            }
+            return Optional.of(resultHeader.analyzeResult());
+        }
+        log.error("azure api call did not return results. not adding annotations to page {}", page);
+        return Optional.empty();
+    }
+
+    /**
+     * Scales the page image down to the pixel budget of the upload, if any. Azure reports coordinates relative to the
+     * size of the uploaded image, so that results map onto the full resolution image all the same. Images which
+     * exceed the budget are decoded, even if they could be uploaded in their original encoding.
+     */
+    private BufferedImage scaledImage(PageImage pageImage) throws IOException {
+        final var scaler = parameters.uploadScaler();
+        if (scaler == null) {
+            return pageImage.bufferedImage();
+        }
+        final var event = new OcrEvents.ScaleEvent();
+        event.begin();
+        final var begin = System.nanoTime();
+        final var image = pageImage.bufferedImage() != null
+                ? pageImage.bufferedImage()
+                : ImageIO.read(new ByteArrayInputStream(pageImage.upload().data()));
+        if (image == null) {
+            throw new IOException("no reader for %s".formatted(pageImage.upload().contentType().getMimeType()));
+        }
+        final var scaled = scaler.scale(image);
+        parameters.metrics().recordStage(OcrMetrics.Stage.SCALE, System.nanoTime() - begin);
+        if (event.shouldCommit()) {
+            event.setContext(PageContext.current());
+            event.sourcePixels = (long) image.getWidth() * image.getHeight();
+            event.pixels = (long) scaled.getWidth() * scaled.getHeight();
+            event.commit();
+        }
+        return scaled;
+    }
+
+    /**
+     * Analyzes all pages of a chunk with a single analyze request.
+     *
+     * @return the result of all pages of the chunk, or empty if the analysis has failed
+     */
+    private Optional<AnalyzeResult> analyzePdf(PdfChunk chunk, byte[] pdf) {
+        final var lastPage = chunk.getFirstPage() + chunk.getPageCount() - 1;
+        try {
+            final var loc = apiAdapter.waitAnalyze(
+                    pdf,
+                    ContentType.APPLICATION_PDF,
+                    parameters.language(),
+                    parameters.timeoutAnalyze()
+            );
+            final var resultHeader = apiAdapter.waitResult(loc, parameters.timeoutResult());
+            if (resultHeader != null && resultHeader.status() == Status.SUCCEEDED) {
+                return Optional.of(resultHeader.analyzeResult());
+            }
+            log.error("azure api call did not return results. not adding annotations to pages {} to {}", chunk.getFirstPage(), lastPage);
+        } catch (IOException e) {
+            log.error("azure api call failed. not adding annotations to pages {} to {}", chunk.getFirstPage(), lastPage);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the result of page if a previous run has completed it, or if the operation a previous run had submitted
+     * for it has succeeded in the meantime
+     */
+    private Optional<AnalyzeResult> resume(int page, OcrJournal journal) {
+        final var completed = journal.completedResult(page);
+        if (completed.isPresent()) {
+            return completed;
+        }
+        final var pendingOperation = journal.pendingOperation(page);
+        if (pendingOperation.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            final var resultHeader = apiAdapter.waitResult(pendingOperation.get(), parameters.timeoutResult());
+            if (resultHeader != null && resultHeader.status() == Status.SUCCEEDED) {
+                journal.recordCompleted(page, resultHeader.analyzeResult());
+                return Optional.of(resultHeader.analyzeResult());
+            }
+        } catch (IOException | RuntimeException e) {
+            // azure only keeps results for a limited time
+            log.warn("could not resume operation {} of page {}", pendingOperation.get().operationId(), page, e);
+        }
+        log.info("submitting page {} again", page);
+        return Optional.empty();
+    }
+
+    /**
+     * @param geometry geometry of the existing page the text layer is added to, or null if a new page is created from
+     *         the page image
+     */
+    private PageContainer<Optional<AzurePdfAnnotator.PreparedPage>> preparePage(
+            AzurePdfAnnotator annotator,
+            PDFont font,
+            AzurePdfAnnotator.PageGeometry geometry,
+            PageContainer<Optional<AnnotatedImage>> pageContainer
+    ) {
+        final var event = new OcrEvents.PrepareEvent();
+        event.begin();
+        final var begin = System.nanoTime();
+        final var prepared = new PageContainer<>(
+                pageContainer.page(),
+                pageContainer.data().map(annotatedImage -> geometry != null
+                        ? annotator.prepareTextLayer(font, geometry, annotatedImage)
+                        : annotator.preparePage(font, annotatedImage)
+                )
+        );
+        parameters.metrics().recordStage(OcrMetrics.Stage.PREPARE, System.nanoTime() - begin);
+        if (event.shouldCommit()) {
+            event.setContext(PageContext.current());
+            event.commit();
+        }
+        return prepared;
+    }
+
+    private void annotatePage(
+            AzurePdfAnnotator annotator,
+            PDDocument pdDocOut,
+            boolean overlay,
+            PDFont font,
+            PageContainer<Optional<AzurePdfAnnotator.PreparedPage>> pageContainer,
+            List<AnalyzeResult> analyzeResults
+    ) {
+        if (pageContainer.data().isEmpty()) {
+            log.error("skipping page {} in output generation as we don't have a source image", pageContainer.page());
+            return;
+        }
+        final var preparedPage = pageContainer.data().get();
+        final var annotatedImage = preparedPage.annotatedImage();
+        if (overlay) {
+            // the original page stays as it is, only the text layer is appended to it
+            annotator.addPreparedTextLayer(pdDocOut, pdDocOut.getPage(pageContainer.page()), font, preparedPage);
+        } else {
+            annotator.addPreparedPage(pdDocOut, font, preparedPage);
+        }
+        // add null values, if annotation result is not present
+        analyzeResults.add(annotatedImage.analyzeResult().orElse(null));
     }
 
     public byte[] ocr(byte[] inputPdf) {
         return ocrGetAnalyzeResults(inputPdf).pdfData();
     }
 
+    /**
+     * The input stream is spooled to a temporary file, and the output is returned as a stream of another temporary
+     * file which is deleted once the returned stream is closed.
+     */
     public InputStream ocr(InputStream inputStream) {
-        final var bytesIn = fileUtil.readStream(inputStream);
-        final var bytesOut = ocr(bytesIn);
-        return new ByteArrayInputStream(bytesOut);
+        final var input = fileUtil.spool(inputStream);
+        final var output = fileUtil.createTempFile();
+        try {
+            ocrGetAnalyzeResults(input, output);
+            return Files.newInputStream(output, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            fileUtil.delete(output);
+            throw new RuntimeException("could not open output file", e);
+        } catch (RuntimeException e) {
+            fileUtil.delete(output);
+            throw e;
+        } finally {
+            fileUtil.delete(input);
+        }
     }
 
-    public void ocr(String inputFilePath, String outputFilePath) {
-        final var bytesIn = fileUtil.readFile(inputFilePath);
-        final var bytesOut = ocr(bytesIn);
+    public void ocr(Path inputFilePath, Path outputFilePath) {
+        ocrGetAnalyzeResults(inputFilePath, outputFilePath);
+    }
 
-        fileUtil.writeFile(outputFilePath, bytesOut);
+    /**
+     * @param inputFilePath  path to the input file, or "-" to read from stdin
+     * @param outputFilePath path to the output file, or "--" to write to stdout
+     */
+    public void ocr(String inputFilePath, String outputFilePath) {
+        final var spooled = inputFilePath.equals("-") ? fileUtil.spool(System.in) : null;
+        final var inputPath = spooled != null ? spooled : Path.of(inputFilePath);
+        try {
+            if (!outputFilePath.equals("--")) {
+                ocrGetAnalyzeResults(inputPath, Path.of(outputFilePath));
+                return;
+            }
+            try (
+                    final var input = fileUtil.openRandomAccess(inputPath);
+                    final var output = fileUtil.openOutputStream(outputFilePath)
+            ) {
+                ocrGetAnalyzeResults(input, output);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } finally {
+            if (spooled != null) {
+                fileUtil.delete(spooled);
+            }
+        }
     }
 }
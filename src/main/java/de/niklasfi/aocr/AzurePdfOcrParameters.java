@@ -1,17 +1,87 @@
 package de.niklasfi.aocr;
 
 import de.niklasfi.aocr.azure.dto.Language;
+import de.niklasfi.aocr.metrics.OcrMetrics;
 import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import lombok.With;
 
+/**
+ * @param pagesInFlight maximum number of pages which are processed concurrently. Rendering / extraction, encoding,
+ *         azure submission / polling and annotation of different pages overlap, while the output pages are still added
+ *         in their original order. A value of 1 processes one page after the other.
+ * @param analyzeResultCache cache which is consulted before uploading a page to azure. May be null to disable
+ *         caching.
+ * @param lowMemory keep pdf streams of the input and output documents in temporary files instead of main memory, so
+ *         that memory usage depends on the number of pages in flight rather than on the number of pages.
+ * @param overlay add the invisible text layer to the pages of the input pdf instead of creating new pages from the
+ *         page images. Vector content, bookmarks and the original image compression are kept. The page image is
+ *         expected to show the page's crop box, as is the case for rendered pages and for scans.
+ * @param uploadEncoder encodes page images for the upload to azure. Not used for images which the
+ *         {@link PdfImageRetriever} passes on in their original encoding. May only be null when submitting pdf
+ *         documents.
+ * @param analyzeExecutor executor which encodes and analyzes pages. May be shared by several documents which are
+ *         processed concurrently, in which case it is not shut down by {@link AzurePdfOcr}. If null, every document
+ *         uses a pool of its own with pagesInFlight threads.
+ * @param journalFactory opens a journal next to the output file when reading from and writing to files, so that an
+ *         interrupted run can be resumed without analyzing completed pages again. May be null to disable journaling.
+ * @param metrics receives the latencies of the stages of every page and the number of pages in flight. Requests to
+ *         azure are measured by the {@link de.niklasfi.aocr.azure.api.AzureApiAdapter}, which is configured
+ *         separately.
+ * @param pdfPagesPerRequest submit the pages of the input pdf as pdf documents of up to this many pages instead of
+ *         page images, so that a single analyze request and its polls cover all of them. Page images are only retrieved
+ *         for creating new pages, not in overlay mode. Results of such requests are neither cached nor resumed while
+ *         pending. A value of 0 submits page images. Use more pages in flight than pages per request, so that
+ *         requests overlap.
+ * @param textLayerDetector detects pages which already carry a usable text layer. Such pages are neither retrieved nor
+ *         analyzed, but passed on to the output as they are. May be null to analyze all pages.
+ * @param pageDeduplicator skips blank page images and reuses the results of near duplicates of earlier page images.
+ *         May be shared by several documents, so that duplicates are found across them. Not used when submitting pdf
+ *         documents. May be null to analyze all page images.
+ * @param uploadScaler scales page images down before they are encoded for the upload. Images which the
+ *         {@link PdfImageRetriever} passes on in their original encoding are decoded if they exceed its pixel budget.
+ *         Not used when submitting pdf documents. May be null to upload page images at their full resolution.
+ */
+@With
 public record AzurePdfOcrParameters(
         Duration timeoutAnalyze,
         Duration timeoutResult,
-        Language language
+        Language language,
+        int pagesInFlight,
+        AnalyzeResultCache analyzeResultCache,
+        boolean lowMemory,
+        boolean overlay,
+        UploadEncoder uploadEncoder,
+        ExecutorService analyzeExecutor,
+        OcrJournal.Factory journalFactory,
+        OcrMetrics metrics,
+        int pdfPagesPerRequest,
+        TextLayerDetector textLayerDetector,
+        PageDeduplicator pageDeduplicator,
+        AreaAveragingScaler uploadScaler
 ) {
+    public AzurePdfOcrParameters {
+        if (pagesInFlight < 1) {
+            throw new IllegalArgumentException("number of pages in flight must be at least 1");
+        }
+    }
+
     public static AzurePdfOcrParameters buildDefault(){
         return new AzurePdfOcrParameters(
                 Duration.ofSeconds(300),
                 Duration.ofSeconds(300),
+                null,
+                1,
+                null,
+                false,
+                false,
+                new PngUploadEncoder(),
+                null,
+                null,
+                OcrMetrics.NOOP,
+                0,
+                null,
+                null,
                 null
         );
     }
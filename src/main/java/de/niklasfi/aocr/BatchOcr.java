@@ -0,0 +1,189 @@
+package de.niklasfi.aocr;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Processes many documents within a single run, so that jvm startup, connection setup and font initialization are
+ * paid only once.
+ * <p>
+ * Documents are processed concurrently by the same {@link AzurePdfOcr}. To share a single page level work queue
+ * between all documents, it should be configured with a shared {@link AzurePdfOcrParameters#analyzeExecutor()}. A
+ * document which fails does not affect the others: its partial output is removed and the run continues.
+ */
+@Slf4j
+public class BatchOcr {
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private final AzurePdfOcr azurePdfOcr;
+    private final FileUtil fileUtil;
+    private final int documentsInFlight;
+
+    /**
+     * @param documentsInFlight maximum number of documents which are processed concurrently
+     */
+    public BatchOcr(AzurePdfOcr azurePdfOcr, FileUtil fileUtil, int documentsInFlight) {
+        if (documentsInFlight < 1) {
+            throw new IllegalArgumentException("number of documents in flight must be at least 1");
+        }
+        this.azurePdfOcr = azurePdfOcr;
+        this.fileUtil = fileUtil;
+        this.documentsInFlight = documentsInFlight;
+    }
+
+    public record Job(Path input, Path output) {
+    }
+
+    /**
+     * @param pages number of pages of all documents which were processed successfully
+     */
+    public record Summary(int documents, int failed, int pages, Duration elapsed) {
+        public double pagesPerMinute() {
+            return elapsed.isZero() ? 0 : pages * 60_000. / elapsed.toMillis();
+        }
+    }
+
+    /**
+     * Resolves the documents to process.
+     *
+     * @param input           one of
+     *                        <ul>
+     *                        <li>a directory, which is searched recursively for pdf files</li>
+     *                        <li>a glob pattern such as {@code scans/**}{@code /*.pdf}</li>
+     *                        <li>{@code @} followed by the path of a file listing one input file per line</li>
+     *                        <li>a single pdf file</li>
+     *                        </ul>
+     * @param outputDirectory directory to write the outputs to. Outputs keep the path of their input relative to the
+     *                        searched directory, or just the file name of their input for file lists.
+     */
+    public static List<Job> jobs(String input, Path outputDirectory) {
+        final var excludedDirectory = outputDirectory.toAbsolutePath().normalize();
+        final var globStart = IntStream.range(0, input.length())
+                .filter(i -> GLOB_CHARACTERS.indexOf(input.charAt(i)) >= 0)
+                .findFirst()
+                .orElse(-1);
+        final List<Job> jobs;
+        try {
+            if (input.startsWith("@")) {
+                jobs = new ArrayList<>();
+                for (final var line : Files.readAllLines(Path.of(input.substring(1)))) {
+                    if (line.isBlank() || line.startsWith("#")) {
+                        continue;
+                    }
+                    final var path = Path.of(line.strip());
+                    jobs.add(new Job(path, outputDirectory.resolve(path.getFileName())));
+                }
+            } else if (globStart >= 0) {
+                final var separator = Math.max(input.lastIndexOf('/', globStart), input.lastIndexOf('\\', globStart));
+                final var base = separator < 0 ? Path.of(".") : Path.of(input.substring(0, separator + 1));
+                final var matcher = FileSystems.getDefault().getPathMatcher("glob:" + input.substring(separator + 1));
+                jobs = walk(base, outputDirectory, excludedDirectory, path -> matcher.matches(base.relativize(path)));
+            } else if (Files.isDirectory(Path.of(input))) {
+                jobs = walk(
+                        Path.of(input),
+                        outputDirectory,
+                        excludedDirectory,
+                        path -> path.getFileName().toString().toLowerCase().endsWith(".pdf")
+                );
+            } else {
+                final var path = Path.of(input);
+                jobs = List.of(new Job(path, outputDirectory.resolve(path.getFileName())));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not resolve input files of '%s'".formatted(input), e);
+        }
+
+        final var outputs = new HashSet<Path>();
+        for (final var job : jobs) {
+            if (!outputs.add(job.output().toAbsolutePath().normalize())) {
+                throw new RuntimeException("more than one input maps to output file '%s'".formatted(job.output()));
+            }
+        }
+        return jobs;
+    }
+
+    private static List<Job> walk(
+            Path base,
+            Path outputDirectory,
+            Path excludedDirectory,
+            Predicate<Path> filter
+    ) throws IOException {
+        try (final var paths = Files.walk(base)) {
+            return paths.filter(Files::isRegularFile)
+                    // outputs of previous runs are not inputs
+                    .filter(path -> !path.toAbsolutePath().normalize().startsWith(excludedDirectory))
+                    .filter(filter)
+                    .sorted()
+                    .map(path -> new Job(path, outputDirectory.resolve(base.relativize(path))))
+                    .toList();
+        }
+    }
+
+    public Summary run(List<Job> jobs) {
+        final var start = System.nanoTime();
+        final var pages = new AtomicInteger();
+        final var failed = new AtomicInteger();
+
+        try (final var documentExecutor = Executors.newFixedThreadPool(documentsInFlight)) {
+            for (final var job : jobs) {
+                documentExecutor.execute(() -> {
+                    if (!process(job, pages)) {
+                        failed.incrementAndGet();
+                    }
+                });
+            }
+        }
+
+        final var summary = new Summary(jobs.size(), failed.get(), pages.get(), Duration.ofNanos(System.nanoTime() - start));
+        log.info(
+                "processed {} documents ({} failed) with {} pages in {} s: {} pages per minute",
+                summary.documents(),
+                summary.failed(),
+                summary.pages(),
+                summary.elapsed().toSeconds(),
+                "%.1f".formatted(summary.pagesPerMinute())
+        );
+        return summary;
+    }
+
+    /**
+     * @return whether the document was processed successfully
+     */
+    private boolean process(Job job, AtomicInteger pages) {
+        final var start = System.nanoTime();
+        try {
+            if (job.output().getParent() != null) {
+                Files.createDirectories(job.output().getParent());
+            }
+            final var analyzeResults = azurePdfOcr.ocrGetAnalyzeResults(job.input(), job.output());
+            pages.addAndGet(analyzeResults.size());
+            log.info(
+                    "finished {} with {} pages in {} ms",
+                    job.input(),
+                    analyzeResults.size(),
+                    Duration.ofNanos(System.nanoTime() - start).toMillis()
+            );
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("failed to process {}", job.input(), e);
+            try {
+                fileUtil.delete(job.output());
+            } catch (RuntimeException deleteException) {
+                log.warn("could not remove partial output {}", job.output(), deleteException);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package de.niklasfi.aocr;
+
+import org.apache.hc.core5.http.ContentType;
+
+/**
+ * Image data in a format which can be uploaded to azure.
+ */
+public record EncodedImage(byte[] data, ContentType contentType) {
+}
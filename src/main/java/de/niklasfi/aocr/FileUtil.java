@@ -1,6 +1,12 @@
 package de.niklasfi.aocr;
 
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 public class FileUtil {
     public byte[] readFile(String path) {
@@ -49,4 +55,69 @@ public class FileUtil {
             throw new RuntimeException("Could not write to output stream", e);
         }
     }
+
+    /**
+     * Opens a file for random access without loading it into memory.
+     */
+    public RandomAccessRead openRandomAccess(Path path) {
+        try {
+            return new RandomAccessReadBufferedFile(path.toFile());
+        } catch (IOException e) {
+            throw new RuntimeException("could not open input file '%s'".formatted(path), e);
+        }
+    }
+
+    /**
+     * @return a buffered stream to the file, or to stdout if path is "--". Closing the stream only flushes stdout.
+     */
+    public OutputStream openOutputStream(String path) {
+        if (path.equals("--")) {
+            return new FilterOutputStream(new BufferedOutputStream(System.out)) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+        try {
+            return new BufferedOutputStream(Files.newOutputStream(Path.of(path)));
+        } catch (IOException e) {
+            throw new RuntimeException("could not open output stream for '%s'".formatted(path), e);
+        }
+    }
+
+    /**
+     * Copies a stream into a temporary file, which the caller has to {@link #delete(Path)} after use.
+     */
+    public Path spool(InputStream stream) {
+        final var path = createTempFile();
+        try (final var is = stream) {
+            Files.copy(is, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            delete(path);
+            throw new RuntimeException("could not read from input stream", e);
+        }
+        return path;
+    }
+
+    public Path createTempFile() {
+        try {
+            return Files.createTempFile("aocr-", ".pdf");
+        } catch (IOException e) {
+            throw new RuntimeException("could not create temporary file", e);
+        }
+    }
+
+    public void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new RuntimeException("could not delete '%s'".formatted(path), e);
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package de.niklasfi.aocr;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Caches, per font and code point, whether the code point can be encoded with the font, its advance width and its
+ * encoded bytes.
+ * <p>
+ * Tables are shared by all fonts with the same type and name, so that they survive across pages and documents, even
+ * though every document loads fonts of its own. Entries are computed lazily, once per code point, using the font of
+ * the caller. After that, stripping, measuring and encoding text are plain array lookups.
+ * <p>
+ * pdfbox fonts cache encodings in unsynchronized maps. All calls into the fonts therefore happen while holding the
+ * table's lock, which makes tables safe to use from several threads, even with the same font.
+ */
+@Slf4j
+final class GlyphTable {
+    private static final Map<String, GlyphTable> TABLES = new ConcurrentHashMap<>();
+
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+
+    /**
+     * @param width advance width in glyph space units
+     * @param code  encoded bytes, or null if the code point cannot be encoded
+     */
+    private record Glyph(float width, byte[] code) {
+    }
+
+    private static final Glyph NOT_ENCODABLE = new Glyph(Float.NaN, null);
+
+    /**
+     * glyphs in blocks of 256 code points which are allocated when first used. null entries have not been computed yet
+     */
+    private final AtomicReferenceArray<Glyph[]> blocks =
+            new AtomicReferenceArray<>((Character.MAX_CODE_POINT >> BLOCK_BITS) + 1);
+
+    /**
+     * height of the font's bounding box in glyph space units
+     */
+    private final float boundingBoxHeight;
+
+    private GlyphTable(float boundingBoxHeight) {
+        this.boundingBoxHeight = boundingBoxHeight;
+    }
+
+    static GlyphTable of(PDFont font) {
+        return TABLES.computeIfAbsent(
+                font.getClass().getName() + ":" + font.getName(),
+                key -> new GlyphTable(font.getFontDescriptor().getFontBoundingBox().getHeight())
+        );
+    }
+
+    float boundingBoxHeight() {
+        return boundingBoxHeight;
+    }
+
+    /**
+     * @param text    text without any characters which cannot be encoded with the font
+     * @param width   advance width of text in glyph space units
+     * @param encoded text encoded with the font
+     */
+    record StrippedText(String text, float width, byte[] encoded) {
+    }
+
+    /**
+     * Removes all characters from text which cannot be encoded with font, and measures and encodes the remainder.
+     */
+    StrippedText strip(PDFont font, String text) {
+        StringBuilder sb = null;
+        final var encoded = new ByteArrayOutputStream(2 * text.length());
+        var width = 0f;
+        for (int idx = 0; idx < text.length(); ) {
+            final var codePoint = text.codePointAt(idx);
+            final var next = idx + Character.charCount(codePoint);
+            final var glyph = glyph(font, codePoint);
+            if (glyph.code() == null) {
+                if (sb == null) {
+                    sb = new StringBuilder(text.length()).append(text, 0, idx);
+                }
+            } else {
+                width += glyph.width();
+                encoded.writeBytes(glyph.code());
+                if (sb != null) {
+                    sb.appendCodePoint(codePoint);
+                }
+            }
+            idx = next;
+        }
+        return new StrippedText(sb != null ? sb.toString() : text, width, encoded.toByteArray());
+    }
+
+    /**
+     * Registers the code points of text with a font which is embedded as a subset.
+     */
+    synchronized void addToSubset(PDFont font, String text) {
+        text.codePoints().forEach(font::addToSubset);
+    }
+
+    private Glyph glyph(PDFont font, int codePoint) {
+        final var blockIdx = codePoint >> BLOCK_BITS;
+        var block = blocks.get(blockIdx);
+        if (block == null) {
+            blocks.compareAndSet(blockIdx, null, new Glyph[1 << BLOCK_BITS]);
+            block = blocks.get(blockIdx);
+        }
+        // glyphs only have final fields, so they are safely published even though the array is not synchronized
+        final var glyph = block[codePoint & BLOCK_MASK];
+        return glyph != null ? glyph : compute(font, block, codePoint);
+    }
+
+    private synchronized Glyph compute(PDFont font, Glyph[] block, int codePoint) {
+        final var known = block[codePoint & BLOCK_MASK];
+        if (known != null) {
+            return known;
+        }
+        Glyph glyph;
+        try {
+            final var str = Character.toString(codePoint);
+            glyph = new Glyph(font.getStringWidth(str), font.encode(str));
+        } catch (IllegalArgumentException e) {
+            // cannot encode character. only reported once per font and code point
+            log.warn("cannot encode {} with font {}. skipping this char", codePoint, font.getName());
+            glyph = NOT_ENCODABLE;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        block[codePoint & BLOCK_MASK] = glyph;
+        return glyph;
+    }
+}
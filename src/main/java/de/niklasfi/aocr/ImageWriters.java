@@ -0,0 +1,61 @@
+package de.niklasfi.aocr;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+final class ImageWriters {
+    private ImageWriters() {
+    }
+
+    /**
+     * @param configure adjusts the default write parameters of the image writer, e.g. to set the compression
+     */
+    static byte[] write(RenderedImage image, String formatName, Consumer<ImageWriteParam> configure) throws IOException {
+        final var writers = ImageIO.getImageWritersByFormatName(formatName);
+        if (!writers.hasNext()) {
+            throw new IOException("no image writer available for format %s".formatted(formatName));
+        }
+        final var writer = writers.next();
+        try (
+                final var os = new ByteArrayOutputStream();
+                final var ios = ImageIO.createImageOutputStream(os)
+        ) {
+            writer.setOutput(ios);
+            final var param = writer.getDefaultWriteParam();
+            configure.accept(param);
+            writer.write(null, new IIOImage(image, null, null), param);
+            ios.flush();
+            return os.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    static boolean isBinary(BufferedImage image) {
+        return image.getColorModel().getPixelSize() == 1;
+    }
+
+    /**
+     * @return image itself if it already is of the given type, or a copy of it which has been drawn into an image of
+     * that type
+     */
+    static BufferedImage convert(BufferedImage image, int imageType) {
+        if (image.getType() == imageType) {
+            return image;
+        }
+        final var converted = new BufferedImage(image.getWidth(), image.getHeight(), imageType);
+        final var graphics = converted.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return converted;
+    }
+}
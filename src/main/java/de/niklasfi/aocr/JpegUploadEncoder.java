@@ -0,0 +1,46 @@
+package de.niklasfi.aocr;
+
+import org.apache.hc.core5.http.ContentType;
+
+import javax.imageio.ImageWriteParam;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Lossy encoder, which is much cheaper to run than {@link PngUploadEncoder} and produces far smaller uploads for
+ * scans and photographs. Binary and indexed images are encoded as grayscale, images with transparency as rgb.
+ */
+public class JpegUploadEncoder implements UploadEncoder {
+    private final float quality;
+
+    /**
+     * @param quality jpeg quality from 0 (smallest) to 1 (best)
+     */
+    public JpegUploadEncoder(float quality) {
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("quality must be within 0 and 1");
+        }
+        this.quality = quality;
+    }
+
+    @Override
+    public EncodedImage encode(BufferedImage image) throws IOException {
+        final var data = ImageWriters.write(toJpegCompatible(image), "jpeg", param -> {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        });
+        return new EncodedImage(data, ContentType.IMAGE_JPEG);
+    }
+
+    private static BufferedImage toJpegCompatible(BufferedImage image) {
+        return switch (image.getType()) {
+            case BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR -> image;
+            default -> ImageWriters.convert(
+                    image,
+                    image.getColorModel().getNumColorComponents() == 1
+                            ? BufferedImage.TYPE_BYTE_GRAY
+                            : BufferedImage.TYPE_INT_RGB
+            );
+        };
+    }
+}
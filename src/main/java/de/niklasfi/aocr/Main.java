@@ -3,8 +3,17 @@ package de.niklasfi.aocr;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import de.niklasfi.aocr.azure.api.AzureApiAdapter;
+import de.niklasfi.aocr.azure.api.AzureReadApi;
 import de.niklasfi.aocr.azure.api.AzureUriBuilder;
+import de.niklasfi.aocr.azure.api.ShardedAzureApiAdapter;
+import de.niklasfi.aocr.metrics.InMemoryOcrMetrics;
+import de.niklasfi.aocr.metrics.OcrMetrics;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Optional;
+import java.util.concurrent.Executors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -14,6 +23,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
 import org.apache.pdfbox.rendering.ImageType;
@@ -24,22 +34,30 @@ public class Main {
     public static void main(String[] args) {
         final var options = new Options();
 
-        final var endpointOption = new Option("e", "endpoint", true, "azure cognitive services endpoint url");
+        final var endpointOption = new Option("e", "endpoint", true, "azure cognitive services endpoint url. May be repeated to spread pages over several resources, with one --key per endpoint in the same order.");
         endpointOption.setRequired(true);
         options.addOption(endpointOption);
 
-        final var keyOption = new Option("k", "key", true, "subscription key to access azure cognitive services");
+        final var keyOption = new Option("k", "key", true, "subscription key to access azure cognitive services. May be repeated, see --endpoint.");
         keyOption.setRequired(true);
         options.addOption(keyOption);
 
-        final var inputOption = new Option("i", "input", true, "path to input pdf file");
+        final var inputOption = new Option("i", "input", true, "path to input pdf file. With --output-dir also a directory, a glob pattern or @ followed by a file listing one input file per line");
         inputOption.setRequired(true);
         options.addOption(inputOption);
 
         final var outputOption = new Option("o", "output", true, "path to save output to");
-        outputOption.setRequired(true);
         options.addOption(outputOption);
 
+        final var outputDirOption = new Option(null, "output-dir", true, "directory to save outputs to. Processes all documents specified by --input within a single run, instead of --output");
+        options.addOption(outputDirOption);
+
+        final var documentsInFlightOption = new Option(null, "documents-in-flight", true, "number of documents to process concurrently with --output-dir. Defaults to 4.");
+        options.addOption(documentsInFlightOption);
+
+        final var workersOption = new Option(null, "workers", true, "number of threads encoding and analyzing pages, shared by all documents with --output-dir. Defaults to documents-in-flight * pages-in-flight.");
+        options.addOption(workersOption);
+
         final var extractOption = new Option("r", "retrieve-method", true, """
                 method to use to retrieve images from input pdf. Possible values:
                 - extract (default): use the largest image on the page (useful for scans)
@@ -58,6 +76,64 @@ public class Main {
                 """);
         options.addOption(renderColorOption);
 
+        final var pagesInFlightOption = new Option("p", "pages-in-flight", true, "number of pages to process concurrently. Defaults to 1.");
+        options.addOption(pagesInFlightOption);
+
+        final var cacheDirOption = new Option(null, "cache-dir", true, "directory to cache azure results in, so that pages which have been processed before are not uploaded again. Caching is disabled if not specified.");
+        options.addOption(cacheDirOption);
+
+        final var cacheSizeOption = new Option(null, "cache-size", true, "maximum size of the cache in MiB. Defaults to 1024 MiB.");
+        options.addOption(cacheSizeOption);
+
+        final var journalOption = new Option(null, "journal", false, "record progress in a journal next to the output file, so that an interrupted run can be resumed without analyzing completed pages again.");
+        options.addOption(journalOption);
+
+        final var lowMemoryOption = new Option(null, "low-memory", false, "keep intermediate pdf data in temporary files instead of main memory. Useful for large documents.");
+        options.addOption(lowMemoryOption);
+
+        final var overlayOption = new Option(null, "overlay", false, "add the text layer to the pages of the input pdf instead of replacing them with their images. Keeps vector content, bookmarks and the original compression. Use with --retrieve-method render for pages which are not plain scans.");
+        options.addOption(overlayOption);
+
+        final var uploadFormatOption = new Option("u", "upload-format", true, """
+                image format to upload pages to azure in. Possible values:
+                - png (default): lossless, compression level may be configured using --png-level
+                - jpeg: lossy and much faster to encode, quality may be configured using --jpeg-quality
+                - tiff: CCITT group 4 compressed black / white image. Use with --render-color binary
+                - auto: tiff for black / white images, otherwise jpeg with the highest quality which stays within --max-upload-size
+                - pdf: submit the pages of the input pdf as pdf documents of --pdf-pages pages, with one request per document instead of one per page
+                """);
+        options.addOption(uploadFormatOption);
+
+        final var pngLevelOption = new Option(null, "png-level", true, "png compression level from 0 (fastest) to 9 (smallest). Defaults to 4.");
+        options.addOption(pngLevelOption);
+
+        final var jpegQualityOption = new Option(null, "jpeg-quality", true, "jpeg quality from 0 (smallest) to 1 (best). Defaults to 0.9.");
+        options.addOption(jpegQualityOption);
+
+        final var maxUploadSizeOption = new Option(null, "max-upload-size", true, "maximum size of an upload in MiB, used by --upload-format auto. Defaults to 4 MiB, the limit of the azure free tier.");
+        options.addOption(maxUploadSizeOption);
+
+        final var maxUploadMegapixelsOption = new Option(null, "max-upload-megapixels", true, "scale page images down to at most this many million pixels before uploading them. About 4 corresponds to A4 at 200 dpi. Page images are uploaded at their full resolution if not specified.");
+        options.addOption(maxUploadMegapixelsOption);
+
+        final var pdfPagesOption = new Option(null, "pdf-pages", true, "number of pages per pdf document submitted with --upload-format pdf. Defaults to all pages of the input. The azure free tier only analyzes the first two pages of a document.");
+        options.addOption(pdfPagesOption);
+
+        final var skipTextPagesOption = new Option(null, "skip-text-pages", false, "pass pages which already carry a usable text layer, like born-digital pages, on to the output as they are, instead of analyzing them.");
+        options.addOption(skipTextPagesOption);
+
+        final var skipBlankPagesOption = new Option(null, "skip-blank-pages", false, "do not analyze page images which are blank, like separator sheets.");
+        options.addOption(skipBlankPagesOption);
+
+        final var reuseDuplicatePagesOption = new Option(null, "reuse-duplicate-pages", false, "reuse the result of an earlier page image of the run for identical page images, like copies of a page, instead of analyzing them again.");
+        options.addOption(reuseDuplicatePagesOption);
+
+        final var reuseSimilarPagesOption = new Option(null, "reuse-similar-pages", false, "like --reuse-duplicate-pages, but also reuse results for page images which cover the same areas with ink, like other scans of the same cover sheet. Lossy: pages which differ in a single character or a tick in a checkbox may get the text of the earlier page.");
+        options.addOption(reuseSimilarPagesOption);
+
+        final var metricsOption = new Option(null, "metrics", true, "path to write latencies of the processing stages, transferred bytes and throttling of the run to, as json. Metrics are not collected if not specified.");
+        options.addOption(metricsOption);
+
         final CommandLineParser parser = new DefaultParser();
         final HelpFormatter formatter = new HelpFormatter();
         final CommandLine cmd;
@@ -74,15 +150,75 @@ public class Main {
 
         final var inputFilePath = cmd.getOptionValue("input");
         final var outputFilePath = cmd.getOptionValue("output");
-        final var azureEndpoint = cmd.getOptionValue("endpoint");
-        final var azureSubscriptionKey = cmd.getOptionValue("key");
-
-        final var apiAdapter = new AzureApiAdapter(
-                new AzureUriBuilder(azureEndpoint),
-                azureSubscriptionKey,
-                HttpClients.createDefault(),
-                JsonMapper.builder().addModule(new JavaTimeModule()).build()
-        );
+        final var outputDirectory = cmd.getOptionValue("output-dir");
+        if ((outputFilePath == null) == (outputDirectory == null)) {
+            System.out.println("exactly one of --output and --output-dir is required");
+            formatter.printHelp("aocr", options);
+
+            System.exit(1);
+            return;
+        }
+        final var azureEndpoints = cmd.getOptionValues("endpoint");
+        final var azureSubscriptionKeys = cmd.getOptionValues("key");
+        if (azureEndpoints.length != azureSubscriptionKeys.length) {
+            System.out.println("--endpoint and --key must be given the same number of times");
+            formatter.printHelp("aocr", options);
+
+            System.exit(1);
+            return;
+        }
+
+        final var pagesInFlight = Optional.ofNullable(cmd.getOptionValue("pages-in-flight")).map(Integer::parseInt).orElse(1);
+        final var documentsInFlight = Optional.ofNullable(cmd.getOptionValue("documents-in-flight")).map(Integer::parseInt).orElse(4);
+        final var workers = Optional.ofNullable(cmd.getOptionValue("workers")).map(Integer::parseInt).orElse(documentsInFlight * pagesInFlight);
+        if (pagesInFlight < 1 || documentsInFlight < 1 || workers < 1) {
+            System.out.println("--pages-in-flight, --documents-in-flight and --workers must be at least 1");
+            formatter.printHelp("aocr", options);
+
+            System.exit(1);
+            return;
+        }
+        final var batch = outputDirectory != null;
+
+        final var objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+
+        // one connection per concurrent upload, but no fewer than the http client's default
+        final var maxConnections = Math.max(5, batch ? workers : pagesInFlight);
+        final var connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .build();
+
+        final var metricsFilePath = cmd.getOptionValue("metrics");
+        final var metrics = metricsFilePath != null ? new InMemoryOcrMetrics() : null;
+
+        // throttled requests are retried by the api adapters, which adapt their rate to them. Retries of the http client
+        // would hide the throttling from them
+        final var httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .disableAutomaticRetries()
+                .build();
+        final AzureReadApi apiAdapter;
+        if (azureEndpoints.length == 1) {
+            apiAdapter = new AzureApiAdapter(
+                    new AzureUriBuilder(azureEndpoints[0]),
+                    azureSubscriptionKeys[0],
+                    httpClient,
+                    objectMapper,
+                    metrics != null ? metrics : OcrMetrics.NOOP
+            );
+        } else {
+            final var resources = new ArrayList<ShardedAzureApiAdapter.Resource>();
+            for (int idx = 0; idx < azureEndpoints.length; idx++) {
+                resources.add(new ShardedAzureApiAdapter.Resource(azureEndpoints[idx], azureSubscriptionKeys[idx]));
+            }
+            apiAdapter = new ShardedAzureApiAdapter(
+                    resources,
+                    httpClient,
+                    objectMapper,
+                    metrics != null ? metrics : OcrMetrics.NOOP
+            );
+        }
 
         final var renderColor = switch (cmd.getOptionValue("render-color")) {
             case "binary" -> ImageType.BINARY;
@@ -101,17 +237,103 @@ public class Main {
             default -> throw new RuntimeException("could not parse render-method option");
         };
 
+        final var cacheSize = Optional.ofNullable(cmd.getOptionValue("cache-size")).map(Long::parseLong).orElse(1024L);
+        final var analyzeResultCache = Optional.ofNullable(cmd.getOptionValue("cache-dir"))
+                .map(dir -> new AnalyzeResultCache(Path.of(dir), cacheSize * 1024 * 1024, objectMapper))
+                .orElse(null);
+
+        final PageDeduplicator.Matching matching;
+        if (cmd.hasOption("reuse-similar-pages")) {
+            matching = PageDeduplicator.Matching.SIMILAR;
+        } else if (cmd.hasOption("reuse-duplicate-pages")) {
+            matching = PageDeduplicator.Matching.IDENTICAL;
+        } else {
+            matching = PageDeduplicator.Matching.NONE;
+        }
+        final var pageDeduplicator = cmd.hasOption("skip-blank-pages") || matching != PageDeduplicator.Matching.NONE
+                ? new PageDeduplicator(
+                        cmd.hasOption("skip-blank-pages") ? PageDeduplicator.DEFAULT_MAX_BLANK_INK_COVERAGE : 0,
+                        matching,
+                        PageDeduplicator.DEFAULT_CAPACITY
+                )
+                : null;
+
+        final var pngLevel = Optional.ofNullable(cmd.getOptionValue("png-level")).map(Integer::parseInt).orElse(PngUploadEncoder.DEFAULT_COMPRESSION_LEVEL);
+        final var jpegQuality = Optional.ofNullable(cmd.getOptionValue("jpeg-quality")).map(Float::parseFloat).orElse(.9f);
+        final var maxUploadSize = Optional.ofNullable(cmd.getOptionValue("max-upload-size")).map(Long::parseLong).orElse(4L);
+        final var uploadScaler = Optional.ofNullable(cmd.getOptionValue("max-upload-megapixels"))
+                .map(megapixels -> new AreaAveragingScaler((long) (Double.parseDouble(megapixels) * 1_000_000)))
+                .orElse(null);
+
+        final UploadEncoder uploadEncoder = switch (cmd.getOptionValue("upload-format")) {
+            case "png" -> new PngUploadEncoder(pngLevel);
+            case "jpeg" -> new JpegUploadEncoder(jpegQuality);
+            case "tiff" -> new TiffG4UploadEncoder();
+            case "auto" -> AutoUploadEncoder.buildDefault(maxUploadSize * 1024 * 1024);
+            // pages are submitted as pdf documents instead of being encoded
+            case "pdf" -> null;
+            case null -> new PngUploadEncoder(pngLevel);
+            default -> throw new RuntimeException("could not parse upload-format option");
+        };
+
+        final var pdfPagesPerRequest = "pdf".equals(cmd.getOptionValue("upload-format"))
+                ? Optional.ofNullable(cmd.getOptionValue("pdf-pages")).map(Integer::parseInt).orElse(Integer.MAX_VALUE)
+                : 0;
+
+        // in batch mode all documents share one page level work queue
+        final var analyzeExecutor = batch ? Executors.newFixedThreadPool(workers) : null;
+
+        final var parameters = AzurePdfOcrParameters.buildDefault()
+                .withPagesInFlight(pagesInFlight)
+                .withAnalyzeResultCache(analyzeResultCache)
+                .withLowMemory(cmd.hasOption("low-memory"))
+                .withOverlay(cmd.hasOption("overlay"))
+                .withUploadEncoder(uploadEncoder)
+                .withAnalyzeExecutor(analyzeExecutor)
+                .withJournalFactory(cmd.hasOption("journal") ? new OcrJournal.Factory(objectMapper) : null)
+                .withMetrics(metrics != null ? metrics : OcrMetrics.NOOP)
+                .withPdfPagesPerRequest(pdfPagesPerRequest)
+                .withTextLayerDetector(cmd.hasOption("skip-text-pages") ? TextLayerDetector.buildDefault() : null)
+                .withPageDeduplicator(pageDeduplicator)
+                .withUploadScaler(uploadScaler);
+
         final var fileUtil = new FileUtil();
 
         final var azurePdfOcr = new AzurePdfOcr(
                 apiAdapter,
                 pdfImageRetriever,
                 fileUtil,
-                (doc) -> new PDType1Font(Standard14Fonts.FontName.HELVETICA)
+                (doc) -> new PDType1Font(Standard14Fonts.FontName.HELVETICA),
+                parameters
         );
-        azurePdfOcr.ocr(inputFilePath, outputFilePath);
+        var exitCode = 0;
+        if (batch) {
+            final var jobs = BatchOcr.jobs(inputFilePath, Path.of(outputDirectory));
+            final var summary = new BatchOcr(azurePdfOcr, fileUtil, documentsInFlight).run(jobs);
+            analyzeExecutor.close();
+            exitCode = summary.failed() > 0 ? 2 : 0;
+        } else {
+            azurePdfOcr.ocr(inputFilePath, outputFilePath);
+        }
+        apiAdapter.close();
+
+        if (analyzeResultCache != null) {
+            log.info("cache hits: {}, cache misses: {}", analyzeResultCache.hits(), analyzeResultCache.misses());
+        }
+
+        if (pageDeduplicator != null) {
+            log.info("blank pages: {}, duplicate pages: {}", pageDeduplicator.blankPages(), pageDeduplicator.duplicatePages());
+        }
+
+        if (metrics != null) {
+            try (final var os = Files.newOutputStream(Path.of(metricsFilePath))) {
+                metrics.writeJson(os, objectMapper);
+            } catch (IOException e) {
+                log.error("could not write metrics to '{}'", metricsFilePath, e);
+            }
+        }
 
         log.trace("goodbye from main");
-        System.exit(0);
+        System.exit(exitCode);
     }
 }
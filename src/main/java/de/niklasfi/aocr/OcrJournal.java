@@ -0,0 +1,246 @@
+package de.niklasfi.aocr;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.niklasfi.aocr.azure.api.OperationLocation;
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Append-only journal of the progress of a single document, kept next to its output file, which allows a run that
+ * was interrupted to resume where it stopped.
+ * <p>
+ * The journal records the operation of every page which has been submitted to azure and the result of every page
+ * which has been analyzed, one json object per line. Entries are written and synced to disk by a background thread in
+ * batches, so that recording progress never waits for the disk. A crash may therefore lose the most recent entries,
+ * which only means that their pages are analyzed again.
+ * <p>
+ * The journal belongs to the input it was created for: if it was written for a different input file, it is discarded.
+ * It should be {@link #delete() deleted} once the output has been written.
+ */
+@Slf4j
+public class OcrJournal implements AutoCloseable {
+    public static final String SUFFIX = ".aocr-journal";
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Entry(String fingerprint, Integer page, String endpoint, String operationId, AnalyzeResult analyzeResult) {
+    }
+
+    /**
+     * marks the end of the queue
+     */
+    private static final Entry CLOSE = new Entry(null, null, null, null, null);
+    /**
+     * written as an empty line
+     */
+    private static final Entry NEWLINE = new Entry(null, null, null, null, null);
+
+    private final Path path;
+    private final ObjectMapper objectMapper;
+    private final Map<Integer, AnalyzeResult> completed = new ConcurrentHashMap<>();
+    private final Map<Integer, OperationLocation> pending = new ConcurrentHashMap<>();
+
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final FileChannel channel;
+    private final Thread writer;
+
+    public record Factory(ObjectMapper objectMapper) {
+        /**
+         * Opens the journal of outputPdf, resuming the progress recorded in it if it was written for inputPdf.
+         */
+        public OcrJournal open(Path inputPdf, Path outputPdf) {
+            return new OcrJournal(
+                    outputPdf.resolveSibling(outputPdf.getFileName() + SUFFIX),
+                    fingerprint(inputPdf),
+                    objectMapper
+            );
+        }
+    }
+
+    OcrJournal(Path path, String fingerprint, ObjectMapper objectMapper) {
+        this.path = path;
+        this.objectMapper = objectMapper;
+
+        final var resumed = Files.exists(path) && load(fingerprint);
+        try {
+            channel = FileChannel.open(
+                    path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    resumed ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING
+            );
+        } catch (IOException e) {
+            throw new RuntimeException("could not open journal '%s'".formatted(path), e);
+        }
+        if (resumed) {
+            // the last line may have been cut off by a crash. Blank lines are skipped when loading
+            queue.add(NEWLINE);
+            log.info("resuming from journal {}: {} pages completed, {} pages pending", path, completed.size(), pending.size());
+        } else {
+            queue.add(new Entry(fingerprint, null, null, null, null));
+        }
+
+        writer = Thread.ofPlatform().name("aocr-journal").daemon().start(this::write);
+    }
+
+    /**
+     * @return whether the journal was written for the input with the given fingerprint
+     */
+    private boolean load(String fingerprint) {
+        try (final var lines = Files.lines(path)) {
+            final var iterator = lines.iterator();
+            if (!iterator.hasNext() || !fingerprint.equals(objectMapper.readValue(iterator.next(), Entry.class).fingerprint())) {
+                log.warn("journal {} belongs to a different input. discarding it", path);
+                return false;
+            }
+            while (iterator.hasNext()) {
+                final var line = iterator.next();
+                if (line.isBlank()) {
+                    continue;
+                }
+                final Entry entry;
+                try {
+                    entry = objectMapper.readValue(line, Entry.class);
+                } catch (IOException e) {
+                    // the last line may have been cut off by a crash
+                    log.warn("ignoring unreadable entry in journal {}", path);
+                    continue;
+                }
+                if (entry.page() == null) {
+                    continue;
+                }
+                if (entry.analyzeResult() != null) {
+                    completed.put(entry.page(), entry.analyzeResult());
+                    pending.remove(entry.page());
+                } else if (entry.operationId() != null && !completed.containsKey(entry.page())) {
+                    pending.put(entry.page(), new OperationLocation(entry.endpoint(), entry.operationId()));
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("could not read journal {}. discarding it", path, e);
+            completed.clear();
+            pending.clear();
+            return false;
+        }
+    }
+
+    private static String fingerprint(Path inputPdf) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        try (final InputStream is = new DigestInputStream(Files.newInputStream(inputPdf), digest)) {
+            is.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new RuntimeException("could not read input file '%s'".formatted(inputPdf), e);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void write() {
+        final var os = new BufferedOutputStream(Channels.newOutputStream(channel));
+        final var batch = new ArrayList<Entry>();
+        var closing = false;
+        while (!closing) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            try {
+                for (final var entry : batch) {
+                    if (entry == CLOSE) {
+                        closing = true;
+                        continue;
+                    }
+                    if (entry != NEWLINE) {
+                        os.write(objectMapper.writeValueAsBytes(entry));
+                    }
+                    os.write('\n');
+                }
+                os.flush();
+                // a single sync for everything which has queued up while the previous batch was synced
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("could not write to journal {}. progress is not recorded anymore", path, e);
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return the result of page if it has been analyzed by a previous run
+     */
+    public Optional<AnalyzeResult> completedResult(int page) {
+        return Optional.ofNullable(completed.get(page));
+    }
+
+    /**
+     * @return the operation of page if it had been submitted but not completed by a previous run
+     */
+    public Optional<OperationLocation> pendingOperation(int page) {
+        return Optional.ofNullable(pending.get(page));
+    }
+
+    public void recordSubmitted(int page, OperationLocation operationLocation) {
+        queue.add(new Entry(null, page, operationLocation.endpoint(), operationLocation.operationId(), null));
+    }
+
+    public void recordCompleted(int page, AnalyzeResult analyzeResult) {
+        queue.add(new Entry(null, page, null, null, analyzeResult));
+    }
+
+    /**
+     * Writes all recorded entries to disk and closes the journal file.
+     */
+    @Override
+    public void close() {
+        queue.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("could not close journal {}", path, e);
+        }
+    }
+
+    /**
+     * Closes and removes the journal, once the output it belongs to is complete.
+     */
+    public void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("could not delete journal {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package de.niklasfi.aocr;
+
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spares the analysis of pages which do not need one: blank pages like separator sheets, and duplicates of pages which
+ * have been analyzed before within the same run, like cover sheets. The latter reuse the result of the earlier page.
+ * If the earlier page is still in flight, its result is waited for.
+ * <p>
+ * By default, only pages with identical images are duplicates, which is the case for pages copied by software, but not
+ * for different scans of the same sheet. Matching similar pages also finds those, by comparing their
+ * {@link PageSignature}, but changes smaller than a cell of the signature, like a single character or a tick in a
+ * checkbox, may go unnoticed, in which case the page gets the text of the earlier one.
+ */
+public class PageDeduplicator {
+    public static final double DEFAULT_MAX_BLANK_INK_COVERAGE = .0005;
+    public static final int DEFAULT_CAPACITY = 1000;
+    /**
+     * maximum difference of the ink coverage of similar pages, relative to the larger one
+     */
+    private static final double INK_TOLERANCE = .1;
+    /**
+     * maximum number of differing cells of the signatures of similar pages
+     */
+    private static final int MAX_DISTANCE = 0;
+
+    public enum Matching {
+        /**
+         * results are never reused
+         */
+        NONE,
+        /**
+         * pages with identical images reuse results
+         */
+        IDENTICAL,
+        /**
+         * pages with similar signatures reuse results, even if their images differ in details
+         */
+        SIMILAR
+    }
+
+    private record Entry(PageSignature signature, byte[] digest, CompletableFuture<Optional<AnalyzeResult>> result) {
+    }
+
+    private final double maxBlankInkCoverage;
+    private final Matching matching;
+    private final int capacity;
+    /**
+     * most recently matched last
+     */
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final AtomicLong blankPages = new AtomicLong();
+    private final AtomicLong duplicatePages = new AtomicLong();
+
+    /**
+     * @param maxBlankInkCoverage pages with less ink coverage are blank. 0 disables the detection of blank pages.
+     * @param matching            which pages reuse the results of earlier ones
+     * @param capacity            maximum number of pages to remember. The pages which have been matched least recently
+     *                            are forgotten first
+     */
+    public PageDeduplicator(double maxBlankInkCoverage, Matching matching, int capacity) {
+        this.maxBlankInkCoverage = maxBlankInkCoverage;
+        this.matching = matching;
+        this.capacity = capacity;
+    }
+
+    public static PageDeduplicator buildDefault() {
+        return new PageDeduplicator(DEFAULT_MAX_BLANK_INK_COVERAGE, Matching.IDENTICAL, DEFAULT_CAPACITY);
+    }
+
+    public Matching matching() {
+        return matching;
+    }
+
+    /**
+     * Hashes the pixels of a decoded page image, or the encoded image if it has not been decoded. This costs a pass
+     * over all of the data of the image, unlike the signature.
+     */
+    public static byte[] digest(PageImage pageImage) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("could not create digest", e);
+        }
+        final var image = pageImage.bufferedImage();
+        if (image == null) {
+            digest.update((byte) 0);
+            digest.update(pageImage.upload().data());
+            return digest.digest();
+        }
+
+        // the pixels rather than the data buffer, which may be shared with a larger image
+        digest.update((byte) 1);
+        digest.update(ByteBuffer.allocate(12).putInt(image.getType()).putInt(image.getWidth()).putInt(image.getHeight()).array());
+        final var raster = image.getRaster();
+        Object row = null;
+        ByteBuffer bytes = null;
+        for (int y = 0; y < image.getHeight(); y++) {
+            row = raster.getDataElements(0, y, image.getWidth(), 1, row);
+            if (row instanceof byte[] elements) {
+                digest.update(elements);
+                continue;
+            }
+            if (row instanceof short[] elements) {
+                bytes = bytes != null ? bytes.clear() : ByteBuffer.allocate(elements.length * 2);
+                bytes.asShortBuffer().put(elements);
+            } else if (row instanceof int[] elements) {
+                bytes = bytes != null ? bytes.clear() : ByteBuffer.allocate(elements.length * 4);
+                bytes.asIntBuffer().put(elements);
+            } else {
+                throw new IllegalArgumentException("unsupported transfer type %s".formatted(raster.getTransferType()));
+            }
+            digest.update(bytes.array());
+        }
+        return digest.digest();
+    }
+
+    public boolean isBlank(PageSignature signature) {
+        if (signature.inkCoverage() < maxBlankInkCoverage) {
+            blankPages.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Looks for a duplicate of a page. If there is none, the page is remembered, so that later duplicates use its
+     * result.
+     *
+     * @param digest {@link #digest(PageImage) digest} of the page image. May be null unless only identical pages are
+     *               matched.
+     * @param result completed by the caller with the result of the page once it has been analyzed, or with empty if
+     *               the analysis has failed. Only remembered if there is no duplicate.
+     * @return the result of a duplicate, which may still be in flight, or empty if there is none
+     */
+    public synchronized Optional<CompletableFuture<Optional<AnalyzeResult>>> findOrRegister(
+            PageSignature signature,
+            byte[] digest,
+            CompletableFuture<Optional<AnalyzeResult>> result
+    ) {
+        if (matching == Matching.NONE) {
+            return Optional.empty();
+        }
+        // the results of failed analyses are useless to later pages
+        entries.removeIf(entry -> entry.result().isDone() && entry.result().join().isEmpty());
+
+        for (final var iterator = entries.iterator(); iterator.hasNext(); ) {
+            final var entry = iterator.next();
+            final var duplicate = matching == Matching.IDENTICAL
+                    ? Arrays.equals(digest, entry.digest())
+                    : isSimilar(signature, entry.signature());
+            if (duplicate) {
+                iterator.remove();
+                entries.addLast(entry);
+                duplicatePages.incrementAndGet();
+                return Optional.of(entry.result());
+            }
+        }
+
+        entries.addLast(new Entry(signature, digest, result));
+        while (entries.size() > capacity) {
+            entries.removeFirst();
+        }
+        return Optional.empty();
+    }
+
+    private static boolean isSimilar(PageSignature a, PageSignature b) {
+        return Math.abs(a.inkCoverage() - b.inkCoverage()) <= INK_TOLERANCE * Math.max(a.inkCoverage(), b.inkCoverage())
+                && a.distance(b) <= MAX_DISTANCE;
+    }
+
+    public long blankPages() {
+        return blankPages.get();
+    }
+
+    public long duplicatePages() {
+        return duplicatePages.get();
+    }
+}
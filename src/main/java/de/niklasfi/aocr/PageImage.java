@@ -0,0 +1,28 @@
+package de.niklasfi.aocr;
+
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Image of a page as retrieved from the input pdf.
+ *
+ * @param bufferedImage decoded image. May be null, if upload is present and the image therefore did not need to be
+ *         decoded.
+ * @param source image of the input pdf the page image was extracted from. If present, it is embedded into the output
+ *         as is, instead of re-encoding bufferedImage. May be null.
+ * @param upload encoded image which is uploaded to azure as is, instead of encoding bufferedImage. May be null.
+ * @param width width of the image in pixels
+ * @param height height of the image in pixels
+ */
+public record PageImage(
+        BufferedImage bufferedImage,
+        PDImageXObject source,
+        EncodedImage upload,
+        int width,
+        int height
+) {
+    public static PageImage of(BufferedImage bufferedImage) {
+        return new PageImage(bufferedImage, null, null, bufferedImage.getWidth(), bufferedImage.getHeight());
+    }
+}
@@ -0,0 +1,212 @@
+package de.niklasfi.aocr;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Cheap summary of a page image, which is computed before the page is encoded for the upload: the fraction of the page
+ * covered by ink, and a perceptual hash which is close for different scans of the same page.
+ * <p>
+ * Only every stride-th pixel of every stride-th row is sampled, so that the cost depends on a fixed sample budget
+ * rather than on the resolution of the image. A margin around the page is ignored, as scanners leave dark edges and
+ * punch holes. The ink coverage is derived from a histogram of the luminance of the samples: the paper is as bright as
+ * the brightest tenth of the samples, and ink is darker than half of that. The perceptual hash is the ink coverage of
+ * each of 64 x 64 cells spanning the bounding box of the ink. Cells are about the size of a word at common
+ * resolutions, so that a few words which differ between two pages change some cells noticeably, while noise and
+ * compression artifacts do not.
+ *
+ * @param inkCoverage fraction of the sampled area covered by ink
+ * @param cells       ink coverage of each cell from 0 to 255, row by row
+ */
+public record PageSignature(double inkCoverage, byte[] cells) {
+    /**
+     * number of samples to aim for, every second pixel of every second row of an A4 page at 300 dpi
+     */
+    static final int SAMPLE_BUDGET = 1 << 21;
+    private static final double MARGIN = .05;
+    /**
+     * fraction of the ink on each side which is left out of the bounding box of the ink
+     */
+    private static final double BOX_QUANTILE = .01;
+    private static final int GRID = 64;
+    /**
+     * maximum difference of the ink coverage of cells which are considered equal, from 0 to 255
+     */
+    private static final int CELL_TOLERANCE = 25;
+
+    private interface Luminance {
+        /**
+         * @return luminance from 0 to 255 of the pixel starting at offset
+         */
+        int of(int[] samples, int offset);
+    }
+
+    /**
+     * Samples the image with a stride which keeps the number of samples within the sample budget.
+     */
+    public static PageSignature of(BufferedImage image) {
+        return of(image, stride(image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Decodes an encoded page image at a reduced resolution, reading only the pixels which would be sampled.
+     *
+     * @param width  width of the image in pixels
+     * @param height height of the image in pixels
+     */
+    public static PageSignature of(EncodedImage encodedImage, int width, int height) throws IOException {
+        try (final var iis = ImageIO.createImageInputStream(new ByteArrayInputStream(encodedImage.data()))) {
+            final var readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("no reader for %s".formatted(encodedImage.contentType().getMimeType()));
+            }
+            final var reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                final var param = reader.getDefaultReadParam();
+                final var stride = stride(width, height);
+                param.setSourceSubsampling(stride, stride, 0, 0);
+                return of(reader.read(0, param), 1);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static int stride(int width, int height) {
+        return Math.max(1, (int) Math.sqrt((double) width * height / SAMPLE_BUDGET));
+    }
+
+    /**
+     * @param stride distance of the sampled pixels within a row and of the sampled rows
+     */
+    public static PageSignature of(BufferedImage image, int stride) {
+        final var raster = image.getRaster();
+        final var x0 = (int) (image.getWidth() * MARGIN);
+        final var y0 = (int) (image.getHeight() * MARGIN);
+        final var width = image.getWidth() - 2 * x0;
+        final var height = image.getHeight() - 2 * y0;
+        if (width <= 0 || height <= 0) {
+            return new PageSignature(0, new byte[GRID * GRID]);
+        }
+
+        // luminance of the samples, row by row
+        final var luminance = luminance(image);
+        final var bands = raster.getNumBands();
+        final var columns = (width + stride - 1) / stride;
+        final var rows = (height + stride - 1) / stride;
+        final var samples = new byte[columns * rows];
+        final var histogram = new int[256];
+        int[] pixels = null;
+        for (int row = 0; row < rows; row++) {
+            pixels = raster.getPixels(x0, y0 + row * stride, width, 1, pixels);
+            for (int column = 0; column < columns; column++) {
+                final var value = luminance.of(pixels, column * stride * bands);
+                samples[row * columns + column] = (byte) value;
+                histogram[value]++;
+            }
+        }
+
+        // paper is as bright as the brightest tenth of the samples, ink is darker than half of that
+        var paper = 255;
+        for (long brighter = histogram[paper]; brighter * 10 < samples.length; brighter += histogram[paper]) {
+            paper--;
+        }
+        final var inkThreshold = paper / 2;
+        final var inkPerColumn = new int[columns];
+        final var inkPerRow = new int[rows];
+        var ink = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if ((samples[row * columns + column] & 0xff) < inkThreshold) {
+                    inkPerColumn[column]++;
+                    inkPerRow[row]++;
+                    ink++;
+                }
+            }
+        }
+
+        // the cells span the bounding box of the ink, so that they do not depend on where the page has been placed on
+        // the scanner. The outermost ink is ignored, so that specks do not widen the box
+        final var left = ink > 0 ? quantile(inkPerColumn, ink, BOX_QUANTILE) : 0;
+        final var right = ink > 0 ? quantile(inkPerColumn, ink, 1 - BOX_QUANTILE) + 1 : columns;
+        final var top = ink > 0 ? quantile(inkPerRow, ink, BOX_QUANTILE) : 0;
+        final var bottom = ink > 0 ? quantile(inkPerRow, ink, 1 - BOX_QUANTILE) + 1 : rows;
+        final var cellInk = new int[GRID * GRID];
+        final var cellSamples = new int[GRID * GRID];
+        for (int row = top; row < bottom; row++) {
+            final var cellRow = (row - top) * GRID / (bottom - top) * GRID;
+            for (int column = left; column < right; column++) {
+                final var cell = cellRow + (column - left) * GRID / (right - left);
+                if ((samples[row * columns + column] & 0xff) < inkThreshold) {
+                    cellInk[cell]++;
+                }
+                cellSamples[cell]++;
+            }
+        }
+        final var cells = new byte[GRID * GRID];
+        for (int cell = 0; cell < cells.length; cell++) {
+            cells[cell] = (byte) (cellSamples[cell] > 0 ? cellInk[cell] * 255 / cellSamples[cell] : 0);
+        }
+        return new PageSignature((double) ink / samples.length, cells);
+    }
+
+    /**
+     * @return the index at which the running sum of counts exceeds quantile of total
+     */
+    private static int quantile(int[] counts, int total, double quantile) {
+        long sum = 0;
+        for (int idx = 0; idx < counts.length; idx++) {
+            sum += counts[idx];
+            if (sum > quantile * total) {
+                return idx;
+            }
+        }
+        return counts.length - 1;
+    }
+
+    private static Luminance luminance(BufferedImage image) {
+        if (image.getColorModel() instanceof IndexColorModel indexColorModel) {
+            final var lut = new int[indexColorModel.getMapSize()];
+            for (int idx = 0; idx < lut.length; idx++) {
+                lut[idx] = luminance(indexColorModel.getRGB(idx));
+            }
+            return (samples, offset) -> lut[samples[offset]];
+        }
+        final var sampleModel = image.getSampleModel();
+        if (sampleModel.getNumBands() < 3) {
+            final var max = (1 << sampleModel.getSampleSize(0)) - 1;
+            return (samples, offset) -> samples[offset] * 255 / max;
+        }
+        if (sampleModel.getSampleSize(0) == 8 && sampleModel.getSampleSize(1) == 8 && sampleModel.getSampleSize(2) == 8) {
+            return (samples, offset) -> (77 * samples[offset] + 150 * samples[offset + 1] + 29 * samples[offset + 2]) >> 8;
+        }
+        return (samples, offset) -> {
+            final var r = samples[offset] * 255 / ((1 << sampleModel.getSampleSize(0)) - 1);
+            final var g = samples[offset + 1] * 255 / ((1 << sampleModel.getSampleSize(1)) - 1);
+            final var b = samples[offset + 2] * 255 / ((1 << sampleModel.getSampleSize(2)) - 1);
+            return (77 * r + 150 * g + 29 * b) >> 8;
+        };
+    }
+
+    private static int luminance(int rgb) {
+        return (77 * ((rgb >> 16) & 0xff) + 150 * ((rgb >> 8) & 0xff) + 29 * (rgb & 0xff)) >> 8;
+    }
+
+    /**
+     * @return number of cells whose ink coverage differs noticeably, 0 for the same page and dozens to thousands for
+     * different ones
+     */
+    public int distance(PageSignature other) {
+        var distance = 0;
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (Math.abs((cells[cell] & 0xff) - (other.cells[cell] & 0xff)) > CELL_TOLERANCE) {
+                distance++;
+            }
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,139 @@
+package de.niklasfi.aocr;
+
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import de.niklasfi.aocr.azure.dto.ReadResult;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.multipdf.Splitter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Consecutive pages of the input pdf, which are submitted to azure as a pdf document of their own, so that a single
+ * analyze request and its polls cover all of them.
+ * <p>
+ * The chunk is split off the input document on the thread which retrieves pages, as pdfbox documents must not be
+ * accessed concurrently. It is submitted once the result of any of its pages is requested, and all pages of the chunk
+ * share the result.
+ */
+@Slf4j
+class PdfChunk {
+    /**
+     * index of the first page of the chunk, starting at 0
+     */
+    @Getter
+    private final int firstPage;
+    @Getter
+    private final int pageCount;
+    /**
+     * pdf document of the pages, or null if splitting has failed. Released once it has been submitted
+     */
+    private byte[] data;
+    private final AtomicBoolean submitted = new AtomicBoolean();
+    private final CompletableFuture<List<Optional<AnalyzeResult>>> results = new CompletableFuture<>();
+
+    PdfChunk(int firstPage, int pageCount, byte[] data) {
+        this.firstPage = firstPage;
+        this.pageCount = pageCount;
+        this.data = data;
+    }
+
+    /**
+     * @param firstPage index of the first page of the chunk, starting at 0
+     * @param pageCount number of pages, which must not exceed the pages of document following firstPage
+     */
+    static PdfChunk split(PDDocument document, int firstPage, int pageCount) throws IOException {
+        final var splitter = new Splitter();
+        splitter.setStartPage(firstPage + 1);
+        splitter.setEndPage(firstPage + pageCount);
+        splitter.setSplitAtPage(pageCount);
+        final var parts = splitter.split(document);
+        final var os = new ByteArrayOutputStream();
+        try {
+            // the pages of the part refer to objects of the input document, saving copies them
+            parts.getFirst().save(os);
+        } finally {
+            for (final var part : parts) {
+                part.close();
+            }
+        }
+        return new PdfChunk(firstPage, pageCount, os.toByteArray());
+    }
+
+    boolean contains(int page) {
+        return page >= firstPage && page < firstPage + pageCount;
+    }
+
+    /**
+     * @return size of the pdf document in bytes, or 0 if splitting has failed or the chunk has been submitted already
+     */
+    int size() {
+        return data != null ? data.length : 0;
+    }
+
+    /**
+     * Returns the result of a page of the chunk. The first caller submits the chunk and blocks until its result is
+     * available, all other callers wait for it.
+     *
+     * @param page    index of the page in the input document
+     * @param analyze analyzes a pdf document, returning empty if the analysis has failed
+     * @return the result of the page in the shape of the result of a single page image, or empty if the analysis has
+     * failed or azure did not return a result for the page
+     */
+    Optional<AnalyzeResult> result(int page, Function<byte[], Optional<AnalyzeResult>> analyze) {
+        if (!contains(page)) {
+            throw new IllegalArgumentException("page %d is not part of the chunk".formatted(page));
+        }
+        if (submitted.compareAndSet(false, true)) {
+            final var pdf = data;
+            data = null;
+            try {
+                results.complete(pageResults(pdf != null ? analyze.apply(pdf) : Optional.empty(), pageCount));
+            } catch (RuntimeException e) {
+                results.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return results.join().get(page - firstPage);
+    }
+
+    /**
+     * Splits the result of a document into results of its single pages. Read results are indexed by their page number
+     * within the document, starting at 1. Each page result is numbered 1, just like the result of a single image.
+     *
+     * @return a result for every page of the document, empty for pages azure did not return a result for
+     */
+    static List<Optional<AnalyzeResult>> pageResults(Optional<AnalyzeResult> analyzeResult, int pageCount) {
+        final var pageResults = new ArrayList<Optional<AnalyzeResult>>(Collections.nCopies(pageCount, Optional.empty()));
+        analyzeResult.ifPresent(result -> result.readResults().forEach(readResult -> {
+            final var idx = readResult.page() - 1;
+            if (idx < 0 || idx >= pageCount) {
+                log.warn("ignoring result of page {} of a document with {} pages", readResult.page(), pageCount);
+                return;
+            }
+            pageResults.set(idx, Optional.of(new AnalyzeResult(
+                    List.of(new ReadResult(
+                            1,
+                            readResult.angle(),
+                            readResult.width(),
+                            readResult.height(),
+                            readResult.unit(),
+                            readResult.language(),
+                            readResult.lines()
+                    )),
+                    result.version(),
+                    result.modelVersion()
+            )));
+        }));
+        return pageResults;
+    }
+}
@@ -1,5 +1,7 @@
 package de.niklasfi.aocr;
 
+import org.apache.hc.core5.http.ContentType;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDResources;
@@ -9,8 +11,10 @@ import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.IntPredicate;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -44,13 +48,56 @@ public class PdfImageExtractor implements PdfImageRetriever {
                 .map(pc -> new PageContainer<>(pc.page(), extractLargestImageFromPage(pc.data())));
     }
 
+    /**
+     * Passes on the largest image of each page as source for the output. The image is only decoded if azure does not
+     * accept its encoding.
+     */
+    @Override
+    public Stream<PageContainer<Optional<PageImage>>> getPageImages(PDDocument document) {
+        return getPageImages(document, i -> true);
+    }
+
+    @Override
+    public Stream<PageContainer<Optional<PageImage>>> getPageImages(PDDocument document, IntPredicate filter) {
+        return IntStream.range(0, document.getNumberOfPages())
+                .mapToObj(i -> new PageContainer<>(i, filter.test(i) ? Optional.of(document.getPage(i)) : Optional.<PDPage>empty()))
+                .map(pc -> new PageContainer<>(pc.page(), pc.data()
+                        .flatMap(page -> getImagesFromResources(page.getResources()))
+                        .map(xImage -> extractJpeg(xImage)
+                                .map(jpeg -> new PageImage(null, xImage, jpeg, xImage.getWidth(), xImage.getHeight()))
+                                .orElseGet(() -> new PageImage(decode(xImage), xImage, null, xImage.getWidth(), xImage.getHeight()))
+                        )
+                ));
+    }
+
     private Optional<BufferedImage> extractLargestImageFromPage(PDPage pageContainer) {
-        return this.getImagesFromResources(pageContainer.getResources()).map(xImage -> {
-            try {
-                return xImage.getImage();
-            } catch (IOException e) {
-                throw new RuntimeException("could not extract image from PDImageXObject", e);
-            }
-        });
+        return this.getImagesFromResources(pageContainer.getResources()).map(PdfImageExtractor::decode);
+    }
+
+    private static BufferedImage decode(PDImageXObject xImage) {
+        try {
+            return xImage.getImage();
+        } catch (IOException e) {
+            throw new RuntimeException("could not extract image from PDImageXObject", e);
+        }
+    }
+
+    /**
+     * @return the raw image data, if the image is a plain gray or rgb jpeg which azure can read without any conversion
+     */
+    private static Optional<EncodedImage> extractJpeg(PDImageXObject xImage) {
+        final var cosStream = xImage.getCOSObject();
+        final var colorSpace = cosStream.getDictionaryObject(COSName.COLORSPACE);
+        if (!xImage.getStream().getFilters().equals(List.of(COSName.DCT_DECODE))
+                || !(COSName.DEVICEGRAY.equals(colorSpace) || COSName.DEVICERGB.equals(colorSpace))
+                || xImage.getDecode() != null
+                || xImage.isStencil()) {
+            return Optional.empty();
+        }
+        try (final var is = cosStream.createRawInputStream()) {
+            return Optional.of(new EncodedImage(is.readAllBytes(), ContentType.IMAGE_JPEG));
+        } catch (IOException e) {
+            throw new RuntimeException("could not read image data from PDImageXObject", e);
+        }
     }
 }
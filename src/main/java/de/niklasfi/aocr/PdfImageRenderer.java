@@ -7,6 +7,7 @@ import org.apache.pdfbox.rendering.PDFRenderer;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.function.IntPredicate;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -21,9 +22,21 @@ public class PdfImageRenderer implements PdfImageRetriever {
 
     @Override
     public Stream<PageContainer<Optional<BufferedImage>>> getImages(PDDocument document) {
+        return getImages(document, pageIdx -> true);
+    }
+
+    @Override
+    public Stream<PageContainer<Optional<PageImage>>> getPageImages(PDDocument document, IntPredicate filter) {
+        return getImages(document, filter).map(pc -> new PageContainer<>(pc.page(), pc.data().map(PageImage::of)));
+    }
+
+    private Stream<PageContainer<Optional<BufferedImage>>> getImages(PDDocument document, IntPredicate filter) {
         final var renderer = new PDFRenderer(document);
 
         return IntStream.range(0, document.getNumberOfPages()).mapToObj(pageIdx -> {
+            if (!filter.test(pageIdx)) {
+                return new PageContainer<>(pageIdx, Optional.empty());
+            }
             final BufferedImage bufferedImg;
             try {
                 bufferedImg = renderer.renderImageWithDPI(pageIdx, dpi, imageType);
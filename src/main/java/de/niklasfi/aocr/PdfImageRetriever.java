@@ -4,8 +4,26 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 
 import java.awt.image.BufferedImage;
 import java.util.Optional;
+import java.util.function.IntPredicate;
 import java.util.stream.Stream;
 
 public interface PdfImageRetriever {
     Stream<PageContainer<Optional<BufferedImage>>> getImages(PDDocument document);
+
+    /**
+     * Like {@link #getImages(PDDocument)}, but allows implementations to pass on the original image data of the input
+     * pdf, so that it does not have to be decoded and re-encoded.
+     */
+    default Stream<PageContainer<Optional<PageImage>>> getPageImages(PDDocument document) {
+        return getImages(document).map(pc -> new PageContainer<>(pc.page(), pc.data().map(PageImage::of)));
+    }
+
+    /**
+     * Like {@link #getPageImages(PDDocument)}, but only retrieves the images of the pages accepted by filter. Other
+     * pages are passed on without an image. The filter is called lazily, right before the page would be retrieved.
+     * The default implementation retrieves all images and discards the ones which are not needed.
+     */
+    default Stream<PageContainer<Optional<PageImage>>> getPageImages(PDDocument document, IntPredicate filter) {
+        return getPageImages(document).map(pc -> filter.test(pc.page()) ? pc : new PageContainer<>(pc.page(), Optional.empty()));
+    }
 }
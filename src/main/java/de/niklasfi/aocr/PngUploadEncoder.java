@@ -0,0 +1,43 @@
+package de.niklasfi.aocr;
+
+import org.apache.hc.core5.http.ContentType;
+
+import javax.imageio.ImageWriteParam;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Lossless encoder. Higher compression levels produce smaller uploads at the cost of considerably more cpu time.
+ */
+public class PngUploadEncoder implements UploadEncoder {
+    /**
+     * compression level used by ImageIO if none is specified
+     */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 4;
+
+    private final int compressionLevel;
+
+    /**
+     * @param compressionLevel deflate compression level from 0 (no compression) to 9 (best compression)
+     */
+    public PngUploadEncoder(int compressionLevel) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("compression level must be within 0 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    public PngUploadEncoder() {
+        this(DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    @Override
+    public EncodedImage encode(BufferedImage image) throws IOException {
+        final var data = ImageWriters.write(image, "png", param -> {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            // the png writer maps quality q onto deflate level 9 - round(9 * q)
+            param.setCompressionQuality((9 - compressionLevel) / 9f);
+        });
+        return new EncodedImage(data, ContentType.IMAGE_PNG);
+    }
+}
@@ -0,0 +1,141 @@
+package de.niklasfi.aocr;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.OperatorName;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Decides whether a page of the input pdf already carries a usable text layer, so that it does not need to be
+ * analyzed. This is the case for born-digital pages, and for scans which have been run through ocr before.
+ * <p>
+ * The text of the page is extracted with pdfbox. A page has text, if enough of its glyphs map to unicode. Glyphs of
+ * fonts without a unicode mapping extract as garbage, so that pages which show mostly such glyphs are analyzed anyway.
+ * If the page is dominated by an image, its glyphs must also cover a minimum fraction of the page, which sorts out
+ * scans that only carry a few lines of real text, like stamps or headers.
+ */
+@Slf4j
+public class TextLayerDetector {
+    /**
+     * fraction of the page an image must cover for the page to be considered a scan
+     */
+    private static final double SCAN_IMAGE_COVERAGE = .5;
+
+    private final int minGlyphs;
+    private final double minMappedFraction;
+    private final double minScanGlyphCoverage;
+
+    /**
+     * @param minGlyphs            minimum number of non-whitespace glyphs with a unicode mapping
+     * @param minMappedFraction    minimum fraction of the non-whitespace glyphs which map to unicode
+     * @param minScanGlyphCoverage minimum fraction of the page covered by glyphs, if an image covers at least half of
+     *                             the page
+     */
+    public TextLayerDetector(int minGlyphs, double minMappedFraction, double minScanGlyphCoverage) {
+        this.minGlyphs = minGlyphs;
+        this.minMappedFraction = minMappedFraction;
+        this.minScanGlyphCoverage = minScanGlyphCoverage;
+    }
+
+    public static TextLayerDetector buildDefault() {
+        return new TextLayerDetector(50, .9, .02);
+    }
+
+    /**
+     * @param glyphs        number of non-whitespace glyphs
+     * @param mappedGlyphs  number of non-whitespace glyphs which map to unicode
+     * @param glyphCoverage sum of the areas of the glyphs relative to the area of the page
+     * @param imageCoverage area of the largest image relative to the area of the page
+     */
+    public record PageText(int glyphs, int mappedGlyphs, double glyphCoverage, double imageCoverage) {
+    }
+
+    private static final class Stripper extends PDFTextStripper {
+        private int glyphs = 0;
+        private int mappedGlyphs = 0;
+        private double glyphArea = 0;
+        private double imageArea = 0;
+
+        private Stripper() throws IOException {
+            super();
+        }
+
+        @Override
+        protected void processTextPosition(TextPosition text) {
+            final var unicode = text.getUnicode();
+            if (unicode != null && unicode.isBlank()) {
+                return;
+            }
+            glyphs++;
+            if (unicode != null && unicode.chars().noneMatch(c -> c == '\uFFFD' || Character.isISOControl(c))) {
+                mappedGlyphs++;
+            }
+            glyphArea += Math.abs(text.getWidthDirAdj() * text.getHeightDir());
+        }
+
+        @Override
+        protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+            final var image = switch (operator.getName()) {
+                case OperatorName.DRAW_OBJECT -> !operands.isEmpty()
+                        && operands.getFirst() instanceof COSName name
+                        && getResources() != null
+                        && getResources().isImageXObject(name);
+                case OperatorName.BEGIN_INLINE_IMAGE -> true;
+                default -> false;
+            };
+            if (image) {
+                // images are drawn into the unit square, so the area is the determinant of the transformation
+                final var ctm = getGraphicsState().getCurrentTransformationMatrix();
+                final var area = Math.abs(ctm.getScaleX() * ctm.getScaleY() - ctm.getShearX() * ctm.getShearY());
+                imageArea = Math.max(imageArea, area);
+            }
+            super.processOperator(operator, operands);
+        }
+    }
+
+    /**
+     * @param page index of the page, starting at 0
+     */
+    public PageText analyze(PDDocument document, int page) throws IOException {
+        final var stripper = new Stripper();
+        stripper.setStartPage(page + 1);
+        stripper.setEndPage(page + 1);
+        stripper.getText(document);
+
+        final var cropBox = document.getPage(page).getCropBox();
+        final var pageArea = Math.max(1, cropBox.getWidth() * cropBox.getHeight());
+        return new PageText(
+                stripper.glyphs,
+                stripper.mappedGlyphs,
+                stripper.glyphArea / pageArea,
+                Math.min(1, stripper.imageArea / pageArea)
+        );
+    }
+
+    /**
+     * @param page index of the page, starting at 0
+     * @return whether the page has a usable text layer. Pages whose text cannot be extracted are considered to have
+     * none.
+     */
+    public boolean hasText(PDDocument document, int page) {
+        final PageText pageText;
+        try {
+            pageText = analyze(document, page);
+        } catch (IOException | RuntimeException e) {
+            log.warn("could not extract text of page {}. analyzing it", page, e);
+            return false;
+        }
+        final var hasText = pageText.mappedGlyphs() >= minGlyphs
+                && pageText.mappedGlyphs() >= minMappedFraction * pageText.glyphs()
+                && (pageText.imageCoverage() < SCAN_IMAGE_COVERAGE || pageText.glyphCoverage() >= minScanGlyphCoverage);
+        log.debug("page {}: {}, has text: {}", page, pageText, hasText);
+        return hasText;
+    }
+}
@@ -0,0 +1,26 @@
+package de.niklasfi.aocr;
+
+import org.apache.hc.core5.http.ContentType;
+
+import javax.imageio.ImageWriteParam;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Encodes bilevel images as tiff with CCITT group 4 compression, which is lossless, fast and by far the most compact
+ * format for black and white scans. Images which are not bilevel yet are thresholded first, so this encoder should
+ * only be used for images which are binary already, e.g. pages rendered with {@code ImageType.BINARY}.
+ */
+public class TiffG4UploadEncoder implements UploadEncoder {
+    @Override
+    public EncodedImage encode(BufferedImage image) throws IOException {
+        final var bilevel = ImageWriters.isBinary(image)
+                ? image
+                : ImageWriters.convert(image, BufferedImage.TYPE_BYTE_BINARY);
+        final var data = ImageWriters.write(bilevel, "tiff", param -> {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType("CCITT T.6");
+        });
+        return new EncodedImage(data, ContentType.IMAGE_TIFF);
+    }
+}
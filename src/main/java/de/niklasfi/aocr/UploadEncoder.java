@@ -0,0 +1,11 @@
+package de.niklasfi.aocr;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Encodes page images into the payload which is uploaded to azure.
+ */
+public interface UploadEncoder {
+    EncodedImage encode(BufferedImage image) throws IOException;
+}
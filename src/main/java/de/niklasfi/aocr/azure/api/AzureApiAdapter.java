@@ -1,33 +1,160 @@
 package de.niklasfi.aocr.azure.api;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import de.niklasfi.aocr.azure.core.concurrent.CloseableReentrantLock;
+import de.niklasfi.aocr.azure.core.concurrent.AdaptiveRateLimiter;
 import de.niklasfi.aocr.azure.core.http.HttpAcceptedResponseHandler;
-import de.niklasfi.aocr.azure.core.http.HttpEntityResponseHandler;
 import de.niklasfi.aocr.azure.core.http.HttpRetryResponseHandler;
 import de.niklasfi.aocr.azure.core.http.HttpRetryResponseHandler.HttpResponseRetryException;
 import de.niklasfi.aocr.azure.dto.Language;
 import de.niklasfi.aocr.azure.dto.ReadResultHeader;
-import de.niklasfi.aocr.azure.dto.Status;
-import lombok.RequiredArgsConstructor;
+import de.niklasfi.aocr.jfr.OcrEvents;
+import de.niklasfi.aocr.jfr.PageContext;
+import de.niklasfi.aocr.metrics.OcrMetrics;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
 import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
 
 import java.io.IOException;
 import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-@RequiredArgsConstructor
-public class AzureApiAdapter {
+public class AzureApiAdapter implements AzureReadApi {
     private final AzureUriBuilder uriBuilder;
     private final String subscriptionKey;
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
 
-    private final CloseableReentrantLock sharedLock = new CloseableReentrantLock();
+    private final AdaptiveRateLimiter analyzeLimiter;
+    private final AdaptiveRateLimiter resultLimiter;
+    private final OcrMetrics metrics;
 
+    /**
+     * runs the blocking result requests issued by {@link #poller}
+     */
+    private final ExecutorService pollExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ReadResultPoller poller;
+    /**
+     * contexts of the callers waiting for operations, so that polls, which run on threads of their own, can be tied
+     * back to the page they belong to
+     */
+    private final Map<OperationLocation, PageContext> pollContexts = new ConcurrentHashMap<>();
+
+    /**
+     * @param analyzeLimiter limits the rate of analyze requests submitted through this adapter
+     * @param resultLimiter  limits the rate of result polls submitted through this adapter
+     * @param metrics        receives the latencies of requests, transferred bytes and throttling
+     */
+    public AzureApiAdapter(
+            AzureUriBuilder uriBuilder,
+            String subscriptionKey,
+            HttpClient httpClient,
+            ObjectMapper objectMapper,
+            AdaptiveRateLimiter analyzeLimiter,
+            AdaptiveRateLimiter resultLimiter,
+            OcrMetrics metrics
+    ) {
+        this.uriBuilder = uriBuilder;
+        this.subscriptionKey = subscriptionKey;
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.analyzeLimiter = analyzeLimiter;
+        this.resultLimiter = resultLimiter;
+        this.metrics = metrics;
+        this.poller = new ReadResultPoller(
+                this::pollAsync,
+                Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("aocr-poller").daemon().factory()),
+                metrics
+        );
+    }
+
+    public AzureApiAdapter(
+            AzureUriBuilder uriBuilder,
+            String subscriptionKey,
+            HttpClient httpClient,
+            ObjectMapper objectMapper,
+            AdaptiveRateLimiter analyzeLimiter,
+            AdaptiveRateLimiter resultLimiter
+    ) {
+        this(uriBuilder, subscriptionKey, httpClient, objectMapper, analyzeLimiter, resultLimiter, OcrMetrics.NOOP);
+    }
+
+    public AzureApiAdapter(
+            AzureUriBuilder uriBuilder,
+            String subscriptionKey,
+            HttpClient httpClient,
+            ObjectMapper objectMapper,
+            OcrMetrics metrics
+    ) {
+        this(
+                uriBuilder,
+                subscriptionKey,
+                httpClient,
+                objectMapper,
+                AdaptiveRateLimiter.buildDefault(),
+                AdaptiveRateLimiter.buildDefault(),
+                metrics
+        );
+    }
+
+    public AzureApiAdapter(
+            AzureUriBuilder uriBuilder,
+            String subscriptionKey,
+            HttpClient httpClient,
+            ObjectMapper objectMapper
+    ) {
+        this(
+                uriBuilder,
+                subscriptionKey,
+                httpClient,
+                objectMapper,
+                OcrMetrics.NOOP
+        );
+    }
+
+    /**
+     * @return endpoint of the resource this adapter accesses
+     */
+    String endpoint() {
+        return uriBuilder.getEndpoint();
+    }
+
+    private static void acquire(AdaptiveRateLimiter limiter) {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Records the size of the response body, before handler reads it.
+     */
+    private <T> HttpClientResponseHandler<T> countDownload(HttpClientResponseHandler<T> handler) {
+        return response -> {
+            if (response.getEntity() != null && response.getEntity().getContentLength() > 0) {
+                metrics.recordBytesDownloaded(response.getEntity().getContentLength());
+            }
+            return handler.handleResponse(response);
+        };
+    }
+
+    private static void emitThrottled(String request, Duration retryAfter) {
+        final var event = new OcrEvents.ThrottledEvent();
+        if (event.shouldCommit()) {
+            event.setContext(PageContext.current());
+            event.request = request;
+            event.retryAfter = retryAfter.toMillis();
+            event.commit();
+        }
+    }
 
     private void interceptSetContentType(HttpRequest request, ContentType contentType) {
         request.setHeader("Content-Type", contentType);
@@ -47,35 +174,62 @@ public class AzureApiAdapter {
                 .setEntity(data, contentType)
                 .build();
         interceptSetSubscriptionKey(request);
-        final String locationHeader;
+        // rejected requests have been transferred as well
+        metrics.recordBytesUploaded(data.length);
+        final var event = new OcrEvents.AnalyzeSubmitEvent();
+        event.begin();
+        final var begin = System.nanoTime();
+        OperationLocation location = null;
         try {
-            locationHeader = httpClient.execute(request, new HttpAcceptedResponseHandler("Operation-Location"));
+            final var locationHeader = httpClient.execute(request, countDownload(new HttpAcceptedResponseHandler("Operation-Location")));
+            // results can only be retrieved from the resource which owns the operation
+            location = OperationLocation.fromFullUrl(locationHeader).withEndpoint(uriBuilder.getEndpoint());
+            return location;
         } catch (IOException e){
             throw e;
+        } finally {
+            metrics.recordStage(OcrMetrics.Stage.UPLOAD, System.nanoTime() - begin);
+            if (event.shouldCommit()) {
+                event.setContext(PageContext.current());
+                event.payloadSize = data.length;
+                event.operationId = location != null ? location.operationId() : null;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Submits data once, as soon as the analyze limiter grants a permit. The outcome is reported to the limiter.
+     *
+     * @throws HttpRetryResponseHandler.HttpResponseRetryException if the request has been throttled
+     */
+    OperationLocation analyzeOnce(byte[] data, ContentType contentType, Language language) throws IOException {
+        // waiting for a permit happens outside of any lock, so throttled callers don't hold up each other
+        acquire(analyzeLimiter);
+        try {
+            final var location = analyze(data, contentType, language);
+            analyzeLimiter.onSuccess();
+            return location;
+        } catch (HttpAcceptedResponseHandler.HttpResponseRetryException e) {
+            metrics.recordThrottled(e.getRetryAfter());
+            emitThrottled("analyze", e.getRetryAfter());
+            analyzeLimiter.onThrottled(e.getRetryAfter());
+            throw e;
         }
-        return OperationLocation.fromFullUrl(locationHeader);
     }
 
+    @Override
     public OperationLocation waitAnalyze(byte[] data, ContentType contentType, Language language, Duration timeout) throws IOException {
         final var begin = ZonedDateTime.now();
 
         do {
-            // ensure other analyze requests are locked out
-            try (final var lock = sharedLock.lockAsResource()) {
-                try {
-                    return analyze(data, contentType, language);
-                } catch (HttpAcceptedResponseHandler.HttpResponseRetryException e) {
-                    try {
-                        Thread.sleep(e.getRetryAfter());
-                    } catch (InterruptedException e2) {
-                        throw new RuntimeException(e2);
-                    }
-                } catch (IOException e){
-                    throw e;
-                }
+            try {
+                return analyzeOnce(data, contentType, language);
+            } catch (HttpAcceptedResponseHandler.HttpResponseRetryException e) {
+                // the limiter holds back the next attempt until retryAfter has passed
             }
         } while (Duration.between(begin, ZonedDateTime.now()).compareTo(timeout) <= 0);
-        return null;
+        throw new IOException("request has not been accepted within %s".formatted(timeout));
     }
 
     public ReadResultHeader result(OperationLocation operationLocation) throws IOException {
@@ -85,43 +239,79 @@ public class AzureApiAdapter {
         interceptSetSubscriptionKey(request);
         interceptSetContentType(request, ContentType.APPLICATION_JSON);
 
+        final var event = new OcrEvents.ResultPollEvent();
+        event.begin();
+        final var begin = System.nanoTime();
+        ReadResultHeader result = null;
         try {
-            return httpClient.execute(request, new HttpEntityResponseHandler<>(objectMapper, ReadResultHeader.class));
+            result = httpClient.execute(request, countDownload(new ReadResultHeaderResponseHandler(objectMapper)));
+            return result;
         } catch (HttpResponseRetryException e){
             throw e;
         } catch (IOException e){
             throw e;
+        } finally {
+            metrics.recordStage(OcrMetrics.Stage.POLL, System.nanoTime() - begin);
+            if (event.shouldCommit()) {
+                event.setContext(PageContext.current());
+                event.operationId = operationLocation.operationId();
+                event.status = result != null ? String.valueOf(result.status()) : null;
+                event.commit();
+            }
         }
     }
 
-    public ReadResultHeader waitResult(OperationLocation operationLocation, Duration timeout) throws IOException {
-        final var begin = ZonedDateTime.now();
-        var delay = Duration.ofSeconds(1);
-
-        ReadResultHeader result = null;
-        do {
-            try (final var lock = sharedLock.lockAsResource()) {
+    private CompletableFuture<ReadResultHeader> pollAsync(OperationLocation operationLocation) {
+        final var context = pollContexts.getOrDefault(operationLocation, PageContext.NONE);
+        return CompletableFuture.supplyAsync(() -> {
+            acquire(resultLimiter);
+            try (final var scope = context.enter()) {
                 try {
-                    result = result(operationLocation);
+                    final var result = result(operationLocation);
+                    resultLimiter.onSuccess();
+                    return result;
                 } catch (HttpRetryResponseHandler.HttpResponseRetryException e) {
-                    try {
-                        Thread.sleep(delay);
-                    } catch (InterruptedException e2) {
-                        throw new RuntimeException(e2);
-                    }
-                    continue;
+                    // the poller schedules the next attempt once retryAfter has passed
+                    metrics.recordThrottled(e.getRetryAfter());
+                    emitThrottled("result", e.getRetryAfter());
+                    resultLimiter.onThrottled(e.getRetryAfter());
+                    throw new CompletionException(e);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
                 }
             }
-            if (result.status() != Status.RUNNING) {
-                return result;
-            }
-            try {
-                Thread.sleep(delay);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+        }, pollExecutor);
+    }
+
+    /**
+     * Waits for the operation to finish. Polling is performed by a {@link ReadResultPoller} which is shared by all
+     * callers of this adapter.
+     *
+     * @return the result once the operation has finished, or the last polled result once timeout has passed
+     */
+    @Override
+    public ReadResultHeader waitResult(OperationLocation operationLocation, Duration timeout) throws IOException {
+        final var context = PageContext.current();
+        if (context != PageContext.NONE) {
+            pollContexts.put(operationLocation, context);
+        }
+        final var begin = System.nanoTime();
+        try {
+            return poller.submit(operationLocation, timeout).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
             }
-            delay = delay.multipliedBy(2);
-        } while (Duration.between(begin, ZonedDateTime.now()).compareTo(timeout) <= 0);
-        return result;
+            throw e;
+        } finally {
+            metrics.recordStage(OcrMetrics.Stage.QUEUE, System.nanoTime() - begin);
+            pollContexts.remove(operationLocation, context);
+        }
+    }
+
+    @Override
+    public void close() {
+        poller.close();
+        pollExecutor.shutdown();
     }
 }
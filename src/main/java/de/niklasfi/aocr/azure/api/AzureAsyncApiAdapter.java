@@ -0,0 +1,241 @@
+package de.niklasfi.aocr.azure.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.niklasfi.aocr.azure.core.concurrent.AdaptiveRateLimiter;
+import de.niklasfi.aocr.azure.core.http.HttpAcceptedResponseHandler;
+import de.niklasfi.aocr.azure.core.http.HttpRetryResponseHandler;
+import de.niklasfi.aocr.azure.dto.Language;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.io.CloseMode;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking counterpart of {@link AzureApiAdapter}.
+ * <p>
+ * No thread is held while a request is on the wire or while waiting for a retry or the next poll: requests are
+ * executed by the async http client, retries are scheduled on a timer and polls are scheduled by a
+ * {@link ReadResultPoller}. Responses are decoded on the scheduler's threads, so that the http client's I/O threads are
+ * never busy with json.
+ * <p>
+ * Closing the adapter closes the http client. The scheduler belongs to the caller and is left running.
+ */
+public class AzureAsyncApiAdapter implements AutoCloseable {
+    private final AzureUriBuilder uriBuilder;
+    private final String subscriptionKey;
+    private final CloseableHttpAsyncClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final ScheduledExecutorService scheduler;
+
+    private final AdaptiveRateLimiter analyzeLimiter;
+    private final AdaptiveRateLimiter resultLimiter;
+
+    private final ReadResultPoller poller;
+
+    /**
+     * @param httpClient an already started async http client
+     * @param scheduler  schedules retries and polls and decodes responses. Not shut down by the adapter
+     */
+    public AzureAsyncApiAdapter(
+            AzureUriBuilder uriBuilder,
+            String subscriptionKey,
+            CloseableHttpAsyncClient httpClient,
+            ObjectMapper objectMapper,
+            ScheduledExecutorService scheduler,
+            AdaptiveRateLimiter analyzeLimiter,
+            AdaptiveRateLimiter resultLimiter
+    ) {
+        this.uriBuilder = uriBuilder;
+        this.subscriptionKey = subscriptionKey;
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.scheduler = scheduler;
+        this.analyzeLimiter = analyzeLimiter;
+        this.resultLimiter = resultLimiter;
+        this.poller = new ReadResultPoller(
+                operationLocation -> executeOnce(resultLimiter, () -> result(operationLocation)),
+                scheduler
+        );
+    }
+
+    public AzureAsyncApiAdapter(
+            AzureUriBuilder uriBuilder,
+            String subscriptionKey,
+            CloseableHttpAsyncClient httpClient,
+            ObjectMapper objectMapper,
+            ScheduledExecutorService scheduler
+    ) {
+        this(
+                uriBuilder,
+                subscriptionKey,
+                httpClient,
+                objectMapper,
+                scheduler,
+                AdaptiveRateLimiter.buildDefault(),
+                AdaptiveRateLimiter.buildDefault()
+        );
+    }
+
+    /**
+     * @param maxConnections maximum number of pooled connections to the azure endpoint
+     * @return a started async http client
+     */
+    public static CloseableHttpAsyncClient createHttpClient(int maxConnections) {
+        final var connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .build();
+        // throttled requests are retried by executeWithRetry, so that the rate limiter learns of them
+        final var client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .disableAutomaticRetries()
+                .build();
+        client.start();
+        return client;
+    }
+
+    public CompletableFuture<OperationLocation> analyze(byte[] data, ContentType contentType) {
+        return analyze(data, contentType, null);
+    }
+
+    public CompletableFuture<OperationLocation> analyze(byte[] data, ContentType contentType, Language language) {
+        final var request = SimpleRequestBuilder
+                .post(uriBuilder.readAnalyze(language))
+                .setBody(data, contentType)
+                .setHeader("Ocp-Apim-Subscription-Key", subscriptionKey)
+                .build();
+        return execute(request, new HttpAcceptedResponseHandler("Operation-Location"))
+                .thenApply(OperationLocation::fromFullUrl);
+    }
+
+    /**
+     * @return a future which fails with an {@link IOException} if the request was still throttled after timeout has
+     * passed
+     */
+    public CompletableFuture<OperationLocation> waitAnalyze(byte[] data, ContentType contentType, Language language, Duration timeout) {
+        return executeWithRetry(analyzeLimiter, () -> analyze(data, contentType, language), timeout);
+    }
+
+    public CompletableFuture<ReadResultHeader> result(OperationLocation operationLocation) {
+        final var request = SimpleRequestBuilder
+                .get(uriBuilder.readResult(operationLocation.operationId()))
+                .setHeader("Ocp-Apim-Subscription-Key", subscriptionKey)
+                .setHeader("Content-Type", ContentType.APPLICATION_JSON.toString())
+                .build();
+        return execute(request, new ReadResultHeaderResponseHandler(objectMapper));
+    }
+
+    /**
+     * Polls the operation through the adapter's {@link ReadResultPoller}.
+     *
+     * @return a future which completes with the result once the operation has finished, or with the last polled
+     * result once timeout has passed
+     */
+    public CompletableFuture<ReadResultHeader> waitResult(OperationLocation operationLocation, Duration timeout) {
+        return poller.submit(operationLocation, timeout);
+    }
+
+    /**
+     * Takes a permit from limiter for a single attempt and reports its outcome back to the limiter.
+     */
+    private <T> CompletableFuture<T> executeOnce(AdaptiveRateLimiter limiter, Supplier<CompletableFuture<T>> call) {
+        return after(limiter.reserve())
+                .thenCompose(ignored -> call.get())
+                .whenComplete((value, e) -> {
+                    final var cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause == null) {
+                        limiter.onSuccess();
+                    } else if (cause instanceof HttpRetryResponseHandler.HttpResponseRetryException retryException) {
+                        limiter.onThrottled(retryException.getRetryAfter());
+                    }
+                });
+    }
+
+    /**
+     * Retries throttled attempts until timeout has passed.
+     *
+     * @return a future which fails with an {@link IOException} if every attempt was throttled
+     */
+    private <T> CompletableFuture<T> executeWithRetry(AdaptiveRateLimiter limiter, Supplier<CompletableFuture<T>> call, Duration timeout) {
+        return executeWithRetry(limiter, call, timeout, System.nanoTime() + timeout.toNanos());
+    }
+
+    private <T> CompletableFuture<T> executeWithRetry(
+            AdaptiveRateLimiter limiter,
+            Supplier<CompletableFuture<T>> call,
+            Duration timeout,
+            long deadline
+    ) {
+        return executeOnce(limiter, call)
+                .thenApply(CompletableFuture::completedFuture)
+                .exceptionally(e -> {
+                    final var cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (!(cause instanceof HttpRetryResponseHandler.HttpResponseRetryException)) {
+                        return CompletableFuture.failedFuture(cause);
+                    }
+                    if (System.nanoTime() - deadline >= 0) {
+                        return CompletableFuture.failedFuture(
+                                new IOException("request has not been accepted within %s".formatted(timeout), cause)
+                        );
+                    }
+                    return executeWithRetry(limiter, call, timeout, deadline);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Void> after(Duration delay) {
+        if (delay.isZero()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final var future = new CompletableFuture<Void>();
+        scheduler.schedule(() -> future.complete(null), delay.toNanos(), TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    private <T> CompletableFuture<T> execute(SimpleHttpRequest request, HttpRetryResponseHandler<T> handler) {
+        final var future = new CompletableFuture<T>();
+        httpClient.execute(request, new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                scheduler.execute(() -> {
+                    try {
+                        future.complete(handler.handleResponse(response));
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(Exception e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+}
@@ -0,0 +1,34 @@
+package de.niklasfi.aocr.azure.api;
+
+import de.niklasfi.aocr.azure.dto.Language;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import org.apache.hc.core5.http.ContentType;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Blocking access to the read api, as used by {@link de.niklasfi.aocr.AzurePdfOcr}.
+ */
+public interface AzureReadApi extends AutoCloseable {
+    /**
+     * Submits data for analysis, retrying throttled requests until timeout has passed.
+     *
+     * @return the location of the operation
+     * @throws IOException if the request has failed, or has been throttled until timeout has passed
+     */
+    OperationLocation waitAnalyze(byte[] data, ContentType contentType, Language language, Duration timeout) throws IOException;
+
+    /**
+     * Waits for an operation to finish. The operation may also have been submitted by a previous run.
+     *
+     * @return the result once the operation has finished, or the last polled result once timeout has passed
+     */
+    ReadResultHeader waitResult(OperationLocation operationLocation, Duration timeout) throws IOException;
+
+    /**
+     * Stops the threads of the adapter. The http client is not closed, as it may be shared.
+     */
+    @Override
+    void close();
+}
@@ -1,6 +1,7 @@
 package de.niklasfi.aocr.azure.api;
 
 import de.niklasfi.aocr.azure.dto.Language;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.text.StringSubstitutor;
 import org.apache.hc.core5.net.URIBuilder;
@@ -12,6 +13,7 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class AzureUriBuilder {
 
+    @Getter
     private final String endpoint;
 
     private URIBuilder builder(String url, Map<String, String> substitution) {
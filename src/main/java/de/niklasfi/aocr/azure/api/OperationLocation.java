@@ -2,10 +2,19 @@ package de.niklasfi.aocr.azure.api;
 
 import java.util.regex.Pattern;
 
-public record OperationLocation(String operationId) {
+/**
+ * @param endpoint    endpoint of the resource which owns the operation, as configured in {@link AzureUriBuilder}. Its
+ *                    results can only be retrieved from that resource. May be null if unknown.
+ * @param operationId id of the operation
+ */
+public record OperationLocation(String endpoint, String operationId) {
 
     private static final Pattern fullUrlPattern = Pattern.compile("/vision/v3\\.2/read/analyzeResults/([0-9a-z-]+)$");
 
+    public OperationLocation(String operationId) {
+        this(null, operationId);
+    }
+
     public static OperationLocation fromFullUrl(String fullUrl) {
         final var m = fullUrlPattern.matcher(fullUrl);
 
@@ -17,4 +26,8 @@ public record OperationLocation(String operationId) {
         }
         return new OperationLocation(m.group(1));
     }
+
+    public OperationLocation withEndpoint(String endpoint) {
+        return new OperationLocation(endpoint, operationId);
+    }
 }
@@ -0,0 +1,63 @@
+package de.niklasfi.aocr.azure.api;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.niklasfi.aocr.azure.core.http.HttpRetryResponseHandler;
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import de.niklasfi.aocr.azure.dto.Status;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpStatus;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+
+/**
+ * Decodes the response of the read result endpoint with jackson's streaming parser, directly from the response
+ * entity.
+ * <p>
+ * Most polls find the operation still running. Azure sends the status as the first field, so for these responses
+ * decoding stops as soon as the status is known and the remaining fields are left unread. Such headers only contain
+ * the status. Results of finished operations are decoded completely.
+ */
+@RequiredArgsConstructor
+public class ReadResultHeaderResponseHandler extends HttpRetryResponseHandler<ReadResultHeader> {
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected ReadResultHeader handleResponseNo429(ClassicHttpResponse response) throws HttpException, IOException {
+        if (response.getCode() != HttpStatus.SC_OK) {
+            throw new HttpException();
+        }
+        try (final var parser = objectMapper.createParser(response.getEntity().getContent())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("read result is not a json object");
+            }
+
+            Status status = null;
+            ZonedDateTime createdDateTime = null;
+            ZonedDateTime lastUpdatedDateTime = null;
+            AnalyzeResult analyzeResult = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final var fieldName = parser.currentName();
+                parser.nextToken();
+                switch (fieldName) {
+                    case "status" -> {
+                        status = objectMapper.readValue(parser, Status.class);
+                        if (status == Status.NOT_STARTED || status == Status.RUNNING) {
+                            return new ReadResultHeader(status, createdDateTime, lastUpdatedDateTime, null);
+                        }
+                    }
+                    case "createdDateTime" -> createdDateTime = objectMapper.readValue(parser, ZonedDateTime.class);
+                    case "lastUpdatedDateTime" -> lastUpdatedDateTime = objectMapper.readValue(parser, ZonedDateTime.class);
+                    case "analyzeResult" -> analyzeResult = objectMapper.readValue(parser, AnalyzeResult.class);
+                    default -> parser.skipChildren();
+                }
+            }
+            return new ReadResultHeader(status, createdDateTime, lastUpdatedDateTime, analyzeResult);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package de.niklasfi.aocr.azure.api;
+
+import de.niklasfi.aocr.azure.core.http.HttpRetryResponseHandler;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import de.niklasfi.aocr.azure.dto.Status;
+import de.niklasfi.aocr.metrics.OcrMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Owns all outstanding read operations of an adapter and polls them from a single scheduler.
+ * <p>
+ * Poll times are derived from the completion times observed so far: an operation is polled when a further fifth of
+ * the previously observed operations had completed at the same age, so that completions are noticed shortly after they
+ * happen without polling every operation at a high rate. Until enough completions were observed, and for operations
+ * which take longer than all observed ones, the delay between polls grows exponentially up to a fixed cap.
+ */
+@Slf4j
+public class ReadResultPoller implements AutoCloseable {
+    private static final int WINDOW_SIZE = 256;
+    private static final int MIN_SAMPLES = 8;
+    private static final double[] POLL_QUANTILES = {.2, .4, .6, .8, .95};
+
+    private final Function<OperationLocation, CompletableFuture<ReadResultHeader>> poll;
+    private final ScheduledExecutorService scheduler;
+    private final Duration minInterval;
+    private final Duration maxInterval;
+    private final OcrMetrics metrics;
+
+    private final Map<OperationLocation, Operation> outstanding = new ConcurrentHashMap<>();
+
+    /**
+     * estimated completion times of recent operations in nanoseconds, used as a ring buffer
+     */
+    private final long[] completionWindow = new long[WINDOW_SIZE];
+    private int completionCount = 0;
+    /**
+     * ages in nanoseconds at which operations are polled, derived from completionWindow
+     */
+    private long[] pollAges = new long[0];
+
+    /**
+     * @param poll        performs a single poll. Throttled polls fail with a
+     *                    {@link HttpRetryResponseHandler.HttpResponseRetryException} and are repeated after its
+     *                    retry-after duration.
+     * @param scheduler   schedules polls. poll is invoked on its threads and should therefore not block.
+     * @param minInterval minimum delay between two polls of an operation
+     * @param maxInterval maximum delay between two polls of an operation
+     * @param metrics     receives the number of polls of every operation
+     */
+    public ReadResultPoller(
+            Function<OperationLocation, CompletableFuture<ReadResultHeader>> poll,
+            ScheduledExecutorService scheduler,
+            Duration minInterval,
+            Duration maxInterval,
+            OcrMetrics metrics
+    ) {
+        this.poll = poll;
+        this.scheduler = scheduler;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.metrics = metrics;
+    }
+
+    public ReadResultPoller(
+            Function<OperationLocation, CompletableFuture<ReadResultHeader>> poll,
+            ScheduledExecutorService scheduler,
+            Duration minInterval,
+            Duration maxInterval
+    ) {
+        this(poll, scheduler, minInterval, maxInterval, OcrMetrics.NOOP);
+    }
+
+    public ReadResultPoller(
+            Function<OperationLocation, CompletableFuture<ReadResultHeader>> poll,
+            ScheduledExecutorService scheduler,
+            OcrMetrics metrics
+    ) {
+        this(poll, scheduler, Duration.ofMillis(250), Duration.ofSeconds(10), metrics);
+    }
+
+    public ReadResultPoller(
+            Function<OperationLocation, CompletableFuture<ReadResultHeader>> poll,
+            ScheduledExecutorService scheduler
+    ) {
+        this(poll, scheduler, OcrMetrics.NOOP);
+    }
+
+    private static final class Operation {
+        private final OperationLocation location;
+        private final long submittedNanos;
+        private final long deadlineNanos;
+        private final CompletableFuture<ReadResultHeader> future = new CompletableFuture<>();
+        private long lastPendingAgeNanos = 0;
+        private int polls = 0;
+        private ReadResultHeader lastResult;
+
+        private Operation(OperationLocation location, long submittedNanos, Duration timeout) {
+            this.location = location;
+            this.submittedNanos = submittedNanos;
+            this.deadlineNanos = submittedNanos + timeout.toNanos();
+        }
+    }
+
+    /**
+     * @return a future which completes with the result once the operation has succeeded or failed, or with the last
+     * polled result (possibly null) once timeout has passed
+     */
+    public CompletableFuture<ReadResultHeader> submit(OperationLocation location, Duration timeout) {
+        final var operation = new Operation(location, System.nanoTime(), timeout);
+        final var existing = outstanding.putIfAbsent(location, operation);
+        if (existing != null) {
+            return existing.future;
+        }
+        schedule(operation, nextDelayNanos(0, 0));
+        return operation.future;
+    }
+
+    /**
+     * @return the number of operations which have not finished yet
+     */
+    public int outstanding() {
+        return outstanding.size();
+    }
+
+    private void schedule(Operation operation, long delayNanos) {
+        scheduler.schedule(() -> pollOnce(operation), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void pollOnce(Operation operation) {
+        final CompletableFuture<ReadResultHeader> polled;
+        try {
+            polled = poll.apply(operation.location);
+        } catch (RuntimeException e) {
+            complete(operation, null, e);
+            return;
+        }
+        polled.whenComplete((result, e) -> {
+            final var age = System.nanoTime() - operation.submittedNanos;
+            operation.polls++;
+
+            final var cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof HttpRetryResponseHandler.HttpResponseRetryException retryException) {
+                final var delay = Math.max(retryException.getRetryAfter().toNanos(), nextDelayNanos(age, operation.polls));
+                scheduleOrTimeout(operation, age, delay);
+                return;
+            }
+            if (cause != null) {
+                complete(operation, null, cause);
+                return;
+            }
+
+            operation.lastResult = result;
+            if (result == null) {
+                complete(operation, null, null);
+                return;
+            }
+            if (result.status() == Status.SUCCEEDED || result.status() == Status.FAILED) {
+                // the operation completed somewhere between the previous and this poll
+                recordCompletion((operation.lastPendingAgeNanos + age) / 2);
+                complete(operation, result, null);
+                return;
+            }
+            operation.lastPendingAgeNanos = age;
+            scheduleOrTimeout(operation, age, nextDelayNanos(age, operation.polls));
+        });
+    }
+
+    private void scheduleOrTimeout(Operation operation, long age, long delayNanos) {
+        if (operation.submittedNanos + age + delayNanos - operation.deadlineNanos > 0) {
+            log.warn("operation {} did not finish in time after {} polls", operation.location.operationId(), operation.polls);
+            complete(operation, operation.lastResult, null);
+            return;
+        }
+        schedule(operation, delayNanos);
+    }
+
+    private void complete(Operation operation, ReadResultHeader result, Throwable e) {
+        outstanding.remove(operation.location, operation);
+        metrics.recordPolls(operation.polls);
+        if (e != null) {
+            operation.future.completeExceptionally(e);
+        } else {
+            operation.future.complete(result);
+        }
+    }
+
+    private synchronized void recordCompletion(long completionNanos) {
+        completionWindow[completionCount % WINDOW_SIZE] = completionNanos;
+        completionCount++;
+
+        final var samples = Arrays.copyOf(completionWindow, Math.min(completionCount, WINDOW_SIZE));
+        Arrays.sort(samples);
+        pollAges = Arrays.stream(POLL_QUANTILES)
+                .mapToLong(q -> samples[(int) Math.min(samples.length - 1, Math.floor(q * samples.length))])
+                .toArray();
+    }
+
+    /**
+     * @param age   nanoseconds since the operation was submitted
+     * @param polls number of polls which have been performed so far
+     */
+    synchronized long nextDelayNanos(long age, int polls) {
+        final var min = minInterval.toNanos();
+        final var max = maxInterval.toNanos();
+
+        if (completionCount >= MIN_SAMPLES) {
+            for (final var pollAge : pollAges) {
+                if (pollAge - age >= min) {
+                    return Math.min(max, pollAge - age);
+                }
+            }
+        }
+        // not enough statistics, or the operation takes longer than almost all others: back off exponentially
+        final var backoff = Duration.ofSeconds(1).toNanos() << Math.min(polls, 16);
+        return Math.max(min, Math.min(max, backoff));
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+}
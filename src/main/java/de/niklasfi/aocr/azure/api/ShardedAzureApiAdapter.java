@@ -0,0 +1,315 @@
+package de.niklasfi.aocr.azure.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.niklasfi.aocr.azure.core.http.HttpRetryResponseHandler;
+import de.niklasfi.aocr.azure.dto.Language;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import de.niklasfi.aocr.azure.dto.Status;
+import de.niklasfi.aocr.metrics.OcrMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.core5.http.ContentType;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Spreads the operations of all callers over several azure resources, so that throughput is not capped by the
+ * transactions per second limit of a single resource.
+ * <p>
+ * Every resource is accessed through an {@link AzureApiAdapter} of its own, with rate limiters and a poller of its
+ * own. Each analyze request goes to the available resource with the lowest expected completion time: its outstanding
+ * operations times its observed operation latency, penalized by the 429s it answered recently. A resource which
+ * throttled a request is skipped until its Retry-After has passed, and one whose requests failed is skipped for a
+ * backoff period which grows with consecutive failures. A failed analyze request is repeated on another resource.
+ * Results are always polled from the resource which owns the operation.
+ */
+@Slf4j
+public class ShardedAzureApiAdapter implements AzureReadApi {
+    /**
+     * weight of a new sample in the moving average of the operation latency
+     */
+    private static final double LATENCY_WEIGHT = .2;
+    /**
+     * time after which a 429 counts only half as much
+     */
+    private static final Duration THROTTLE_HALF_LIFE = Duration.ofSeconds(30);
+    private static final Duration MIN_BACKOFF = Duration.ofSeconds(5);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+
+    /**
+     * @param endpoint        azure cognitive services endpoint url
+     * @param subscriptionKey key of the resource
+     */
+    public record Resource(String endpoint, String subscriptionKey) {
+    }
+
+    /**
+     * @param endpoint        endpoint of the resource
+     * @param outstanding     operations which have been submitted to the resource and are being waited for
+     * @param latency         moving average of the time from submission until the result is available, or null if no
+     *                        operation has completed yet
+     * @param recentThrottles number of 429s, decayed with their age
+     * @param available       whether the resource is neither throttled nor backing off after failures
+     */
+    public record ShardStats(String endpoint, int outstanding, Duration latency, double recentThrottles, boolean available) {
+    }
+
+    private static final class Shard {
+        private final AzureApiAdapter adapter;
+        private int outstanding = 0;
+        /**
+         * 0 while unknown
+         */
+        private double latencyNanos = 0;
+        private double throttles = 0;
+        private long throttlesUpdatedNanos;
+        private long unavailableUntilNanos;
+        private int consecutiveFailures = 0;
+
+        private Shard(AzureApiAdapter adapter, long now) {
+            this.adapter = adapter;
+            this.throttlesUpdatedNanos = now;
+            this.unavailableUntilNanos = now;
+        }
+
+        private double throttles(long now) {
+            return throttles * Math.pow(.5, (double) (now - throttlesUpdatedNanos) / THROTTLE_HALF_LIFE.toNanos());
+        }
+
+        private boolean available(long now) {
+            return unavailableUntilNanos - now <= 0;
+        }
+
+        /**
+         * @param unknownLatencyNanos latency assumed while no operation has completed yet
+         */
+        private double score(long now, double unknownLatencyNanos) {
+            final var latency = latencyNanos > 0 ? latencyNanos : unknownLatencyNanos;
+            return (outstanding + 1) * latency * (1 + throttles(now));
+        }
+    }
+
+    private final List<Shard> shards;
+    private final Map<String, Shard> shardsByEndpoint = new LinkedHashMap<>();
+    private final LongSupplier nanoClock;
+    /**
+     * submission times of the operations which are being waited for
+     */
+    private final Map<OperationLocation, Long> submitted = new ConcurrentHashMap<>();
+    /**
+     * shard the search for the best shard starts at. It rotates, so that ties are broken evenly
+     */
+    private int next = 0;
+
+    /**
+     * @param resources resources to spread operations over. Their endpoints must be distinct.
+     * @param metrics   receives the measurements of all resources
+     */
+    public ShardedAzureApiAdapter(
+            List<Resource> resources,
+            HttpClient httpClient,
+            ObjectMapper objectMapper,
+            OcrMetrics metrics
+    ) {
+        this(
+                resources.stream()
+                        .map(resource -> new AzureApiAdapter(
+                                new AzureUriBuilder(resource.endpoint()),
+                                resource.subscriptionKey(),
+                                httpClient,
+                                objectMapper,
+                                metrics
+                        ))
+                        .toList(),
+                System::nanoTime
+        );
+    }
+
+    ShardedAzureApiAdapter(List<AzureApiAdapter> adapters, LongSupplier nanoClock) {
+        if (adapters.isEmpty()) {
+            throw new IllegalArgumentException("at least one resource is required");
+        }
+        this.nanoClock = nanoClock;
+        final var now = nanoClock.getAsLong();
+        this.shards = adapters.stream().map(adapter -> new Shard(adapter, now)).toList();
+        for (final var shard : shards) {
+            if (shardsByEndpoint.put(shard.adapter.endpoint(), shard) != null) {
+                throw new IllegalArgumentException("endpoint '%s' is configured twice".formatted(shard.adapter.endpoint()));
+            }
+        }
+    }
+
+    /**
+     * Reserves the best shard for an operation.
+     *
+     * @param excluded shards which must not be chosen
+     * @return the available shard with the lowest score, or if none is available the shard which becomes available
+     * first, or null if all shards are excluded
+     */
+    private synchronized Shard reserve(Set<Shard> excluded) {
+        final var now = nanoClock.getAsLong();
+        // optimistic, so that shards without completed operations are tried
+        final var unknownLatency = shards.stream()
+                .mapToDouble(shard -> shard.latencyNanos)
+                .filter(latency -> latency > 0)
+                .min()
+                .orElse(1);
+
+        Shard best = null;
+        var bestScore = 0.;
+        for (int idx = 0; idx < shards.size(); idx++) {
+            final var shard = shards.get((next + idx) % shards.size());
+            if (excluded.contains(shard)) {
+                continue;
+            }
+            final var score = shard.score(now, unknownLatency);
+            final boolean better;
+            if (best == null) {
+                better = true;
+            } else if (shard.available(now) != best.available(now)) {
+                better = shard.available(now);
+            } else if (shard.available(now)) {
+                better = score < bestScore;
+            } else {
+                better = shard.unavailableUntilNanos - best.unavailableUntilNanos < 0;
+            }
+            if (better) {
+                best = shard;
+                bestScore = score;
+            }
+        }
+        next = (next + 1) % shards.size();
+        if (best != null) {
+            best.outstanding++;
+        }
+        return best;
+    }
+
+    private synchronized void release(Shard shard) {
+        shard.outstanding--;
+    }
+
+    private synchronized void onThrottled(Shard shard, Duration retryAfter) {
+        final var now = nanoClock.getAsLong();
+        shard.throttles = shard.throttles(now) + 1;
+        shard.throttlesUpdatedNanos = now;
+        final var until = now + retryAfter.toNanos();
+        if (until - shard.unavailableUntilNanos > 0) {
+            shard.unavailableUntilNanos = until;
+        }
+    }
+
+    private synchronized void onFailed(Shard shard) {
+        shard.consecutiveFailures++;
+        final var backoff = Math.min(
+                MAX_BACKOFF.toNanos(),
+                MIN_BACKOFF.toNanos() << Math.min(shard.consecutiveFailures - 1, 16)
+        );
+        shard.unavailableUntilNanos = nanoClock.getAsLong() + backoff;
+    }
+
+    private synchronized void onSucceeded(Shard shard) {
+        shard.consecutiveFailures = 0;
+    }
+
+    private synchronized void onCompleted(Shard shard, long latencyNanos) {
+        shard.latencyNanos = shard.latencyNanos > 0
+                ? shard.latencyNanos + LATENCY_WEIGHT * (latencyNanos - shard.latencyNanos)
+                : latencyNanos;
+    }
+
+    /**
+     * Submits data to the best resource. Throttled requests are repeated on the then best resource until timeout has
+     * passed. Failed requests are repeated on each other resource once.
+     *
+     * @throws IOException if the request has failed on all resources, or has not been accepted before timeout has passed
+     */
+    @Override
+    public OperationLocation waitAnalyze(byte[] data, ContentType contentType, Language language, Duration timeout) throws IOException {
+        final var deadline = nanoClock.getAsLong() + timeout.toNanos();
+        final var failed = new HashSet<Shard>();
+        IOException failure = null;
+
+        do {
+            final var shard = reserve(failed);
+            if (shard == null) {
+                throw failure;
+            }
+            final var begin = nanoClock.getAsLong();
+            try {
+                final var location = shard.adapter.analyzeOnce(data, contentType, language);
+                onSucceeded(shard);
+                // the shard stays reserved until the result has been waited for
+                submitted.put(location, begin);
+                return location;
+            } catch (HttpRetryResponseHandler.HttpResponseRetryException e) {
+                onThrottled(shard, e.getRetryAfter());
+                release(shard);
+            } catch (IOException e) {
+                log.warn("analyze request to {} failed. trying another resource", shard.adapter.endpoint(), e);
+                onFailed(shard);
+                release(shard);
+                failed.add(shard);
+                failure = e;
+            } catch (RuntimeException e) {
+                release(shard);
+                throw e;
+            }
+        } while (nanoClock.getAsLong() - deadline <= 0);
+        throw new IOException("request has not been accepted by any resource within %s".formatted(timeout), failure);
+    }
+
+    /**
+     * Polls the resource which owns the operation.
+     *
+     * @throws IllegalArgumentException if the operation does not belong to any of the resources
+     */
+    @Override
+    public ReadResultHeader waitResult(OperationLocation operationLocation, Duration timeout) throws IOException {
+        final var shard = shardsByEndpoint.get(operationLocation.endpoint());
+        if (shard == null) {
+            throw new IllegalArgumentException("operation %s does not belong to any of the configured resources".formatted(
+                    operationLocation.operationId()
+            ));
+        }
+        // operations submitted by a previous run are not accounted for
+        final var submittedNanos = submitted.remove(operationLocation);
+        try {
+            final var result = shard.adapter.waitResult(operationLocation, timeout);
+            if (submittedNanos != null && result != null && result.status() == Status.SUCCEEDED) {
+                onCompleted(shard, nanoClock.getAsLong() - submittedNanos);
+            }
+            return result;
+        } finally {
+            if (submittedNanos != null) {
+                release(shard);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        shards.forEach(shard -> shard.adapter.close());
+    }
+
+    public synchronized List<ShardStats> stats() {
+        final var now = nanoClock.getAsLong();
+        return shards.stream()
+                .map(shard -> new ShardStats(
+                        shard.adapter.endpoint(),
+                        shard.outstanding,
+                        shard.latencyNanos > 0 ? Duration.ofNanos((long) shard.latencyNanos) : null,
+                        shard.throttles(now),
+                        shard.available(now)
+                ))
+                .toList();
+    }
+}
@@ -0,0 +1,151 @@
+package de.niklasfi.aocr.azure.core.concurrent;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket whose refill rate adapts to the rate the remote service is willing to accept.
+ * <p>
+ * The rate grows additively with every successful call and shrinks multiplicatively whenever the service answers
+ * with 429 (AIMD). A 429 additionally pauses all callers until its Retry-After has passed, after which waiting callers
+ * are released one by one at the reduced rate. Callers never sleep while holding the internal monitor, so a throttled
+ * caller does not block others from reserving permits.
+ */
+public class AdaptiveRateLimiter {
+    private final double minRate;
+    private final double maxRate;
+    private final double burst;
+    private final double additiveIncrease;
+    private final double multiplicativeDecrease;
+    private final LongSupplier nanoClock;
+
+    /**
+     * permits per second
+     */
+    private double rate;
+    /**
+     * may become negative, in which case reservations are queued into the future
+     */
+    private double tokens;
+    /**
+     * lies in the future while callers are paused after a 429 response
+     */
+    private long lastRefillNanos;
+
+    /**
+     * @param initialRate            permits per second before any feedback was received
+     * @param minRate                lower bound of the permit rate
+     * @param maxRate                upper bound of the permit rate
+     * @param burst                  maximum number of permits which may be taken without waiting
+     * @param additiveIncrease       increase of the permit rate per second of successful calls
+     * @param multiplicativeDecrease factor the permit rate is multiplied with on a 429 response
+     */
+    public AdaptiveRateLimiter(
+            double initialRate,
+            double minRate,
+            double maxRate,
+            double burst,
+            double additiveIncrease,
+            double multiplicativeDecrease
+    ) {
+        this(initialRate, minRate, maxRate, burst, additiveIncrease, multiplicativeDecrease, System::nanoTime);
+    }
+
+    AdaptiveRateLimiter(
+            double initialRate,
+            double minRate,
+            double maxRate,
+            double burst,
+            double additiveIncrease,
+            double multiplicativeDecrease,
+            LongSupplier nanoClock
+    ) {
+        if (minRate <= 0 || minRate > maxRate || initialRate < minRate || initialRate > maxRate) {
+            throw new IllegalArgumentException("rates must satisfy 0 < minRate <= initialRate <= maxRate");
+        }
+        if (burst < 1 || multiplicativeDecrease <= 0 || multiplicativeDecrease >= 1) {
+            throw new IllegalArgumentException("burst must be at least 1 and multiplicativeDecrease within (0, 1)");
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.burst = burst;
+        this.additiveIncrease = additiveIncrease;
+        this.multiplicativeDecrease = multiplicativeDecrease;
+        this.nanoClock = nanoClock;
+
+        this.rate = initialRate;
+        this.tokens = burst;
+        this.lastRefillNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Starts at 10 requests per second, which is the limit of the azure S1 tier, and adapts within 0.1 to 100 requests
+     * per second.
+     */
+    public static AdaptiveRateLimiter buildDefault() {
+        return new AdaptiveRateLimiter(10, .1, 100, 10, 1, .5);
+    }
+
+    private void refill(long now) {
+        final var elapsed = (now - lastRefillNanos) / 1e9;
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + elapsed * rate);
+            lastRefillNanos = now;
+        }
+    }
+
+    /**
+     * Takes a permit.
+     *
+     * @return the duration the caller has to wait before it may use the permit
+     */
+    public synchronized Duration reserve() {
+        final var now = nanoClock.getAsLong();
+        refill(now);
+        tokens -= 1;
+
+        final var readyAtNanos = lastRefillNanos + (tokens < 0 ? (long) Math.ceil(-tokens / rate * 1e9) : 0);
+        return Duration.ofNanos(Math.max(0, readyAtNanos - now));
+    }
+
+    /**
+     * Takes a permit and blocks until it may be used.
+     */
+    public void acquire() throws InterruptedException {
+        final var wait = reserve();
+        if (!wait.isZero()) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Report that a call using a permit was accepted by the service.
+     */
+    public synchronized void onSuccess() {
+        // grows the rate by roughly additiveIncrease per second of successful calls
+        rate = Math.min(maxRate, rate + additiveIncrease / rate);
+    }
+
+    /**
+     * Report that a call using a permit was rejected with 429.
+     *
+     * @param retryAfter value of the Retry-After header of the response
+     */
+    public synchronized void onThrottled(Duration retryAfter) {
+        final var now = nanoClock.getAsLong();
+        final var paused = lastRefillNanos > now;
+        refill(now);
+        // calls which were already in flight when the service became saturated only count once
+        if (!paused) {
+            rate = Math.max(minRate, rate * multiplicativeDecrease);
+        }
+        // drop the remaining burst, the service has just told us that it is saturated
+        tokens = Math.min(tokens, 0);
+        // no permits are refilled until retryAfter has passed. Queued reservations are spread out after the pause
+        lastRefillNanos = Math.max(lastRefillNanos, now + retryAfter.toNanos());
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+}
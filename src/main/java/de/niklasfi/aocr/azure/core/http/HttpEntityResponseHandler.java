@@ -7,7 +7,6 @@ import org.apache.hc.core5.http.HttpException;
 import org.apache.hc.core5.http.HttpStatus;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 
 @RequiredArgsConstructor
 public class HttpEntityResponseHandler<T> extends HttpRetryResponseHandler<T> {
@@ -19,7 +18,9 @@ public class HttpEntityResponseHandler<T> extends HttpRetryResponseHandler<T> {
         if(response.getCode() != HttpStatus.SC_OK){
             throw new HttpException();
         }
-        final var str = new String(response.getEntity().getContent().readAllBytes(), StandardCharsets.UTF_8);
-        return objectMapper.readValue(str, cls);
+        // decode while reading, instead of buffering the whole body first
+        try (final var is = response.getEntity().getContent()) {
+            return objectMapper.readValue(is, cls);
+        }
     }
 }
@@ -2,11 +2,14 @@ package de.niklasfi.aocr.azure.core.http;
 
 import lombok.Getter;
 import org.apache.hc.client5.http.HttpResponseException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.HttpException;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.NameValuePair;
 import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
 
 import java.io.IOException;
 import java.time.Duration;
@@ -35,6 +38,19 @@ public abstract class HttpRetryResponseHandler<T> implements HttpClientResponseH
         return handleResponseNo429(response);
     }
 
+    /**
+     * Handles a fully buffered response, as produced by the async client, the same way as a classic response.
+     */
+    public T handleResponse(SimpleHttpResponse response) throws HttpException, IOException {
+        final var classicResponse = new BasicClassicHttpResponse(response.getCode(), response.getReasonPhrase());
+        classicResponse.setHeaders(response.getHeaders());
+        final var body = response.getBody();
+        if (body != null) {
+            classicResponse.setEntity(new ByteArrayEntity(body.getBodyBytes(), body.getContentType()));
+        }
+        return handleResponse(classicResponse);
+    }
+
     protected abstract T handleResponseNo429(ClassicHttpResponse response) throws HttpException, IOException;
 
     public static class HttpResponseRetryException extends HttpResponseException {
@@ -0,0 +1,41 @@
+package de.niklasfi.aocr.azure.dto;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads the coordinates of a bounding box straight into a float array, without boxing them or growing a buffer.
+ * Azure's bounding boxes consist of the x and y coordinates of four corners, so the array is sized for eight values.
+ */
+public class BoundingBoxDeserializer extends StdDeserializer<float[]> {
+    private static final int CORNER_COORDINATES = 8;
+
+    public BoundingBoxDeserializer() {
+        super(float[].class);
+    }
+
+    @Override
+    public float[] deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (!parser.isExpectedStartArrayToken()) {
+            return (float[]) context.handleUnexpectedToken(float[].class, parser);
+        }
+        var coordinates = new float[CORNER_COORDINATES];
+        var size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                return (float[]) context.handleUnexpectedToken(float[].class, parser);
+            }
+            if (size == coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, 2 * size);
+            }
+            coordinates[size++] = parser.getFloatValue();
+        }
+        return size == coordinates.length ? coordinates : Arrays.copyOf(coordinates, size);
+    }
+}
@@ -1,9 +1,16 @@
 package de.niklasfi.aocr.azure.dto;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
 import java.util.List;
 
+/**
+ * @param boundingBox x and y coordinates of the top left, top right, bottom right and bottom left corner, in this
+ *                    order
+ */
 public record Line(
-        List<Double> boundingBox,
+        @JsonDeserialize(using = BoundingBoxDeserializer.class)
+        float[] boundingBox,
         String language,
         String text,
         List<Word> words,
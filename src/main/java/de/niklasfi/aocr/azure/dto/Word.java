@@ -1,9 +1,14 @@
 package de.niklasfi.aocr.azure.dto;
 
-import java.util.List;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
+/**
+ * @param boundingBox x and y coordinates of the top left, top right, bottom right and bottom left corner, in this
+ *                    order
+ */
 public record Word(
-        List<Double> boundingBox,
+        @JsonDeserialize(using = BoundingBoxDeserializer.class)
+        float[] boundingBox,
         double confidence,
         String text
 ) {
@@ -0,0 +1,162 @@
+package de.niklasfi.aocr.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the processing of documents, which are enabled by recording with e.g.
+ * {@code -XX:StartFlightRecording}.
+ * <p>
+ * Page events carry the id of their document and the index of their page, so that outliers can be tied back to the
+ * page they belong to. {@link DocumentEvent}s map document ids to input files. Events are emitted following the
+ * {@code begin} / {@code shouldCommit} / {@code commit} pattern, so that they cost next to nothing while no recording
+ * is running.
+ */
+public final class OcrEvents {
+    private static final String CATEGORY = "aocr";
+
+    private OcrEvents() {
+    }
+
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public abstract static class PageEvent extends Event {
+        @Label("Document Id")
+        public String documentId;
+
+        @Label("Page")
+        @Description("index of the page, starting at 0")
+        public int page;
+
+        public void setContext(PageContext context) {
+            this.documentId = context.documentId();
+            this.page = context.page();
+        }
+    }
+
+    @Name("de.niklasfi.aocr.Retrieve")
+    @Label("Retrieve Page")
+    @Description("rendering or extracting the image of a page")
+    public static class RetrieveEvent extends PageEvent {
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name("de.niklasfi.aocr.Signature")
+    @Label("Page Signature")
+    @Description("computing the signature of a page image to detect blank and duplicate pages")
+    public static class SignatureEvent extends PageEvent {
+        @Label("Ink Coverage")
+        @Description("fraction of the page covered by ink")
+        public double inkCoverage;
+    }
+
+    @Name("de.niklasfi.aocr.Scale")
+    @Label("Scale Page")
+    @Description("scaling the image of a page down for the upload")
+    public static class ScaleEvent extends PageEvent {
+        @Label("Source Pixels")
+        public long sourcePixels;
+
+        @Label("Pixels")
+        @Description("pixels of the scaled image")
+        public long pixels;
+    }
+
+    @Name("de.niklasfi.aocr.Encode")
+    @Label("Encode Page")
+    @Description("encoding the image of a page for the upload")
+    public static class EncodeEvent extends PageEvent {
+        @Label("Content Type")
+        public String contentType;
+
+        @Label("Size")
+        @DataAmount
+        public long size;
+    }
+
+    @Name("de.niklasfi.aocr.AnalyzeSubmit")
+    @Label("Analyze Submit")
+    @Description("a single analyze request, including the transfer of the payload")
+    public static class AnalyzeSubmitEvent extends PageEvent {
+        @Label("Payload Size")
+        @DataAmount
+        public long payloadSize;
+
+        @Label("Operation Id")
+        @Description("id of the operation, if the request has been accepted")
+        public String operationId;
+    }
+
+    @Name("de.niklasfi.aocr.ResultPoll")
+    @Label("Result Poll")
+    @Description("a single result request")
+    public static class ResultPollEvent extends PageEvent {
+        @Label("Operation Id")
+        public String operationId;
+
+        @Label("Status")
+        @Description("status of the operation, if the request has succeeded")
+        public String status;
+    }
+
+    @Name("de.niklasfi.aocr.Throttled")
+    @Label("Throttled")
+    @Description("a request which has been rejected with 429")
+    public static class ThrottledEvent extends PageEvent {
+        @Label("Request")
+        @Description("analyze or result")
+        public String request;
+
+        @Label("Retry After")
+        @Timespan(Timespan.MILLISECONDS)
+        public long retryAfter;
+    }
+
+    @Name("de.niklasfi.aocr.Prepare")
+    @Label("Prepare Page")
+    @Description("preparing the content of an output page")
+    public static class PrepareEvent extends PageEvent {
+    }
+
+    @Name("de.niklasfi.aocr.Annotate")
+    @Label("Annotate Page")
+    @Description("adding prepared content to the output document")
+    public static class AnnotateEvent extends PageEvent {
+        @Label("Has Result")
+        public boolean hasResult;
+    }
+
+    @Name("de.niklasfi.aocr.Save")
+    @Label("Save Document")
+    @Description("saving the output document")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class SaveEvent extends Event {
+        @Label("Document Id")
+        public String documentId;
+    }
+
+    @Name("de.niklasfi.aocr.Document")
+    @Label("Process Document")
+    @Description("processing of a document from loading the input until the output has been saved")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class DocumentEvent extends Event {
+        @Label("Document Id")
+        public String documentId;
+
+        @Label("Input")
+        @Description("path of the input file, if read from a file")
+        public String input;
+
+        @Label("Pages")
+        public int pages;
+    }
+}
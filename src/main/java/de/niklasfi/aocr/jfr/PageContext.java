@@ -0,0 +1,38 @@
+package de.niklasfi.aocr.jfr;
+
+/**
+ * Identifies the page the current thread works on, so that events emitted by code which does not know about pages,
+ * like the requests of {@link de.niklasfi.aocr.azure.api.AzureApiAdapter}, can be tied back to it.
+ *
+ * @param documentId id of the document, see {@link OcrEvents.DocumentEvent}
+ * @param page       index of the page, starting at 0
+ */
+public record PageContext(String documentId, int page) {
+    /**
+     * context of threads which do not work on a page
+     */
+    public static final PageContext NONE = new PageContext(null, -1);
+
+    private static final ThreadLocal<PageContext> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    public interface Scope extends AutoCloseable {
+        /**
+         * Leaving a scope doesn't throw any checked exception.
+         */
+        @Override
+        void close();
+    }
+
+    public static PageContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes this the context of the current thread until the returned scope is closed.
+     */
+    public Scope enter() {
+        final var previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> CURRENT.set(previous);
+    }
+}
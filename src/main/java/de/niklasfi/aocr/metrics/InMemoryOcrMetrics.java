@@ -0,0 +1,129 @@
+package de.niklasfi.aocr.metrics;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps all measurements of a run in histograms in main memory. Memory usage is constant, no matter how many pages
+ * are processed. At the end of a run, a {@link #report()} can be written as json.
+ */
+public class InMemoryOcrMetrics implements OcrMetrics {
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final Map<Stage, LogLinearHistogram> stages = new EnumMap<>(Stage.class);
+    private final AtomicLong bytesUploaded = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retryAfterNanos = new AtomicLong();
+    private final LogLinearHistogram pollsPerOperation = new LogLinearHistogram();
+    private final AtomicInteger pagesInFlight = new AtomicInteger();
+    /**
+     * pages in flight, sampled whenever a page is started
+     */
+    private final LogLinearHistogram pagesInFlightSamples = new LogLinearHistogram();
+
+    /**
+     * @param stageMillis       latencies of the stages in milliseconds. Stages which have not been passed are omitted
+     * @param bytesUploaded     total size of the bodies of analyze requests
+     * @param bytesDownloaded   total size of the bodies of responses, as far as announced by Content-Length
+     * @param throttled         number of requests rejected with 429
+     * @param retryAfterSeconds sum of the Retry-After durations of all rejected requests
+     * @param pollsPerOperation result requests issued per operation
+     * @param pagesInFlight     pages in flight whenever a page was started, including that page
+     */
+    public record Report(
+            Map<Stage, LogLinearHistogram.Summary> stageMillis,
+            long bytesUploaded,
+            long bytesDownloaded,
+            long throttled,
+            double retryAfterSeconds,
+            LogLinearHistogram.Summary pollsPerOperation,
+            LogLinearHistogram.Summary pagesInFlight
+    ) {
+    }
+
+    public InMemoryOcrMetrics() {
+        for (final var stage : Stage.values()) {
+            stages.put(stage, new LogLinearHistogram());
+        }
+    }
+
+    @Override
+    public void recordStage(Stage stage, long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    @Override
+    public void recordBytesUploaded(long bytes) {
+        bytesUploaded.addAndGet(bytes);
+    }
+
+    @Override
+    public void recordBytesDownloaded(long bytes) {
+        bytesDownloaded.addAndGet(bytes);
+    }
+
+    @Override
+    public void recordThrottled(Duration retryAfter) {
+        throttled.incrementAndGet();
+        retryAfterNanos.addAndGet(retryAfter.toNanos());
+    }
+
+    @Override
+    public void recordPolls(int polls) {
+        pollsPerOperation.record(polls);
+    }
+
+    @Override
+    public void recordPageStarted() {
+        pagesInFlightSamples.record(pagesInFlight.incrementAndGet());
+    }
+
+    @Override
+    public void recordPageFinished() {
+        pagesInFlight.decrementAndGet();
+    }
+
+    public LogLinearHistogram stage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public Report report() {
+        final var stageMillis = new EnumMap<Stage, LogLinearHistogram.Summary>(Stage.class);
+        stages.forEach((stage, histogram) -> {
+            if (histogram.count() > 0) {
+                stageMillis.put(stage, histogram.summary(NANOS_PER_MILLI));
+            }
+        });
+        return new Report(
+                stageMillis,
+                bytesUploaded.get(),
+                bytesDownloaded.get(),
+                throttled.get(),
+                retryAfterNanos.get() / 1e9,
+                pollsPerOperation.summary(1),
+                pagesInFlightSamples.summary(1)
+        );
+    }
+
+    /**
+     * Writes the {@link #report()} as json. The stream is not closed.
+     */
+    public void writeJson(OutputStream os, ObjectMapper objectMapper) {
+        try {
+            objectMapper.writerWithDefaultPrettyPrinter()
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .writeValue(os, report());
+        } catch (IOException e) {
+            throw new RuntimeException("could not write metrics", e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package de.niklasfi.aocr.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values with a bounded relative error, in the manner of HdrHistogram.
+ * <p>
+ * Values below {@link #SUB_BUCKETS} are counted exactly. Above, every power of two is split into {@link #SUB_BUCKETS}
+ * linear buckets, so that values are resolved to within about 3 % over the whole range of long, using a fixed array of
+ * counters. Recording is lock free and allocation free.
+ */
+public class LogLinearHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS));
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param count number of recorded values
+     * @param min   smallest recorded value, 0 if there are none
+     * @param max   largest recorded value, 0 if there are none
+     * @param mean  mean of the recorded values, 0 if there are none
+     * @param p50   median
+     * @param p90   90th percentile
+     * @param p99   99th percentile
+     * @param p999  99.9th percentile
+     */
+    public record Summary(long count, double min, double max, double mean, double p50, double p90, double p99, double p999) {
+    }
+
+    /**
+     * @param value negative values are counted as 0
+     */
+    public void record(long value) {
+        final var v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        min.accumulateAndGet(v, Math::min);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final var shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the largest value which is counted in the bucket of index
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final var shift = index / SUB_BUCKETS - 1;
+        final var subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((long) subBucket << shift) + (1L << shift) - 1;
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return a value which at least quantile of the recorded values do not exceed, accurate to the resolution of
+     * the histogram, or 0 if no values have been recorded
+     */
+    public long valueAtQuantile(double quantile) {
+        final var total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        final var rank = Math.max(1, (long) Math.ceil(quantile * total));
+        var seen = 0L;
+        for (int idx = 0; idx < counts.length(); idx++) {
+            seen += counts.get(idx);
+            if (seen >= rank) {
+                // the bucket's bound may lie beyond the largest value which has actually been recorded
+                return Math.min(highestEquivalentValue(idx), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @param unit size of the unit of the summary in units of the recorded values, e.g. 1e6 to summarize nanoseconds
+     *             as milliseconds
+     */
+    public Summary summary(double unit) {
+        final var total = count.get();
+        if (total == 0) {
+            return new Summary(0, 0, 0, 0, 0, 0, 0, 0);
+        }
+        return new Summary(
+                total,
+                min.get() / unit,
+                max.get() / unit,
+                (double) sum.get() / total / unit,
+                valueAtQuantile(.5) / unit,
+                valueAtQuantile(.9) / unit,
+                valueAtQuantile(.99) / unit,
+                valueAtQuantile(.999) / unit
+        );
+    }
+}
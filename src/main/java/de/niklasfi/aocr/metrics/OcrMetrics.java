@@ -0,0 +1,129 @@
+package de.niklasfi.aocr.metrics;
+
+import java.time.Duration;
+
+/**
+ * Receives measurements of a run, so that slow runs can be attributed to the stage which is responsible for them.
+ * <p>
+ * Implementations are called concurrently from all threads taking part in a run and must be thread safe. They are
+ * called on the hot path and should not block.
+ */
+public interface OcrMetrics {
+
+    enum Stage {
+        /**
+         * rendering or extracting the image of a page
+         */
+        RETRIEVE,
+        /**
+         * computing the signature of a page image to detect blank and duplicate pages
+         */
+        SIGNATURE,
+        /**
+         * scaling a page image down for the upload
+         */
+        SCALE,
+        /**
+         * encoding the image of a page for the upload
+         */
+        ENCODE,
+        /**
+         * a single analyze request, including the transfer of the image
+         */
+        UPLOAD,
+        /**
+         * from the acceptance of an analyze request until its result is available, i.e. queueing and processing in
+         * azure as observed by polling
+         */
+        QUEUE,
+        /**
+         * a single result request
+         */
+        POLL,
+        /**
+         * preparing the content of an output page
+         */
+        PREPARE,
+        /**
+         * adding prepared content to the output document
+         */
+        ANNOTATE,
+        /**
+         * saving the output document
+         */
+        SAVE,
+        /**
+         * from starting to retrieve a page until it has been added to the output document
+         */
+        PAGE
+    }
+
+    OcrMetrics NOOP = new OcrMetrics() {
+        @Override
+        public void recordStage(Stage stage, long nanos) {
+        }
+
+        @Override
+        public void recordBytesUploaded(long bytes) {
+        }
+
+        @Override
+        public void recordBytesDownloaded(long bytes) {
+        }
+
+        @Override
+        public void recordThrottled(Duration retryAfter) {
+        }
+
+        @Override
+        public void recordPolls(int polls) {
+        }
+
+        @Override
+        public void recordPageStarted() {
+        }
+
+        @Override
+        public void recordPageFinished() {
+        }
+    };
+
+    /**
+     * @param nanos time spent in stage, as measured by {@link System#nanoTime()}
+     */
+    void recordStage(Stage stage, long nanos);
+
+    /**
+     * @param bytes size of the body of an analyze request
+     */
+    void recordBytesUploaded(long bytes);
+
+    /**
+     * @param bytes size of the body of a response, as announced by its Content-Length
+     */
+    void recordBytesDownloaded(long bytes);
+
+    /**
+     * A request has been rejected with 429.
+     *
+     * @param retryAfter time azure asked to wait before the next request
+     */
+    void recordThrottled(Duration retryAfter);
+
+    /**
+     * An operation has finished or timed out.
+     *
+     * @param polls number of result requests which have been issued for the operation
+     */
+    void recordPolls(int polls);
+
+    /**
+     * A page has entered processing. Together with {@link #recordPageFinished()} this tracks the pages in flight.
+     */
+    void recordPageStarted();
+
+    /**
+     * A page which has been started has been added to the output document, or processing has been aborted.
+     */
+    void recordPageFinished();
+}
@@ -0,0 +1,80 @@
+package de.niklasfi.aocr;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import de.niklasfi.aocr.azure.dto.Language;
+import de.niklasfi.aocr.azure.dto.Line;
+import de.niklasfi.aocr.azure.dto.ReadResult;
+import de.niklasfi.aocr.azure.dto.Unit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnalyzeResultCacheTest {
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+
+    @TempDir
+    Path directory;
+
+    private static AnalyzeResult analyzeResult(String text) {
+        final var line = new Line(new float[]{0, 0, 10, 0, 10, 5, 0, 5}, "en", text, List.of(), null);
+        return new AnalyzeResult(
+                List.of(new ReadResult(1, 0, 10, 5, Unit.PIXEL, Language.ENGLISH, List.of(line))),
+                "3.2.0",
+                "2022-04-30"
+        );
+    }
+
+    @Test
+    void keyDependsOnDataAndLanguage() {
+        final var data = "image".getBytes(StandardCharsets.UTF_8);
+        assertEquals(AnalyzeResultCache.key(data, Language.GERMAN), AnalyzeResultCache.key(data, Language.GERMAN));
+        assertNotEquals(AnalyzeResultCache.key(data, Language.GERMAN), AnalyzeResultCache.key(data, null));
+        assertNotEquals(
+                AnalyzeResultCache.key(data, null),
+                AnalyzeResultCache.key("other".getBytes(StandardCharsets.UTF_8), null)
+        );
+    }
+
+    @Test
+    void storesEntriesAcrossInstances() {
+        final var cache = new AnalyzeResultCache(directory, 1024 * 1024, objectMapper);
+        assertTrue(cache.get("a").isEmpty());
+        cache.put("a", analyzeResult("hello"));
+
+        final var reopened = new AnalyzeResultCache(directory, 1024 * 1024, objectMapper);
+        final var line = reopened.get("a").orElseThrow().readResults().get(0).lines().get(0);
+        assertEquals("hello", line.text());
+        assertArrayEquals(new float[]{0, 0, 10, 0, 10, 5, 0, 5}, line.boundingBox());
+        assertEquals(1, reopened.hits());
+        assertEquals(0, reopened.misses());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() {
+        final var probe = new AnalyzeResultCache(directory.resolve("probe"), Long.MAX_VALUE, objectMapper);
+        probe.put("x", analyzeResult("hello"));
+        final var entrySize = directory.resolve("probe").resolve("x.json.gz").toFile().length();
+
+        // room for two entries
+        final var cache = new AnalyzeResultCache(directory.resolve("lru"), 2 * entrySize + entrySize / 2, objectMapper);
+        cache.put("a", analyzeResult("hello"));
+        cache.put("b", analyzeResult("hello"));
+        cache.get("a");
+        cache.put("c", analyzeResult("hello"));
+
+        assertTrue(cache.get("a").isPresent());
+        assertTrue(cache.get("b").isEmpty());
+        assertTrue(cache.get("c").isPresent());
+    }
+}
@@ -0,0 +1,82 @@
+package de.niklasfi.aocr;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class AreaAveragingScalerTest {
+
+    private static BufferedImage gray(int width, int... samples) {
+        final var image = new BufferedImage(width, samples.length / width, BufferedImage.TYPE_BYTE_GRAY);
+        image.getRaster().setSamples(0, 0, width, samples.length / width, 0, samples);
+        return image;
+    }
+
+    private static int[] samples(BufferedImage image) {
+        return image.getRaster().getSamples(0, 0, image.getWidth(), image.getHeight(), 0, (int[]) null);
+    }
+
+    @Test
+    void scalesToPixelBudget() {
+        final var scaled = new AreaAveragingScaler(125_000).scale(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB));
+        assertEquals(500, scaled.getWidth());
+        assertEquals(250, scaled.getHeight());
+    }
+
+    @Test
+    void leavesSmallAndBinaryImagesAlone() {
+        final var scaler = new AreaAveragingScaler(100);
+        final var small = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        final var binary = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_BINARY);
+        assertSame(small, scaler.scale(small));
+        assertSame(binary, scaler.scale(binary));
+    }
+
+    @Test
+    void averagesCoveredPixels() {
+        final var blocks = gray(4,
+                0, 0, 200, 200,
+                0, 0, 200, 200,
+                40, 40, 100, 100,
+                40, 40, 100, 100
+        );
+        assertArrayEquals(new int[]{0, 200, 40, 100}, samples(AreaAveragingScaler.scale(blocks, 2, 2)));
+
+        // the middle pixel is split between both target pixels
+        final var split = gray(3, 0, 255, 0);
+        assertArrayEquals(new int[]{85, 85}, samples(AreaAveragingScaler.scale(split, 2, 1)));
+    }
+
+    @Test
+    void thinStrokesFade() {
+        final var samples = new int[16 * 16];
+        Arrays.fill(samples, 255);
+        for (int y = 0; y < 16; y++) {
+            samples[y * 16 + 5] = 0;
+        }
+        final var scaled = samples(AreaAveragingScaler.scale(gray(16, samples), 4, 4));
+        assertEquals(191, scaled[1]);
+        assertEquals(255, scaled[2]);
+    }
+
+    @Test
+    void keepsColors() {
+        for (final var type : List.of(BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR)) {
+            final var image = new BufferedImage(30, 20, type);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, 0xff123456);
+                }
+            }
+            final var scaled = AreaAveragingScaler.scale(image, 7, 3);
+            assertEquals(BufferedImage.TYPE_INT_RGB, scaled.getType());
+            assertEquals(0x123456, scaled.getRGB(6, 2) & 0xffffff, "type %d".formatted(type));
+        }
+    }
+}
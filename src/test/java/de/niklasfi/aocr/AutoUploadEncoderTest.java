@@ -0,0 +1,88 @@
+package de.niklasfi.aocr;
+
+import org.apache.hc.core5.http.ContentType;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AutoUploadEncoderTest {
+    private static BufferedImage image(int type) {
+        final var image = new BufferedImage(400, 300, type);
+        final var graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 400, 300);
+        graphics.setColor(Color.BLACK);
+        graphics.drawString("lorem ipsum dolor sit amet", 20, 40);
+        graphics.dispose();
+        return image;
+    }
+
+    private static BufferedImage noise() {
+        final var image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        final var random = new Random(0);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static void assertDecodable(EncodedImage encoded) throws IOException {
+        final var decoded = ImageIO.read(new ByteArrayInputStream(encoded.data()));
+        assertNotNull(decoded);
+        assertEquals(400, decoded.getWidth());
+        assertEquals(300, decoded.getHeight());
+    }
+
+    @Test
+    void binaryImagesAreEncodedAsTiff() throws IOException {
+        final var encoded = AutoUploadEncoder.buildDefault().encode(image(BufferedImage.TYPE_BYTE_BINARY));
+        assertEquals(ContentType.IMAGE_TIFF, encoded.contentType());
+        assertDecodable(encoded);
+    }
+
+    @Test
+    void colorImagesAreEncodedAsJpeg() throws IOException {
+        final var encoded = AutoUploadEncoder.buildDefault().encode(image(BufferedImage.TYPE_INT_ARGB));
+        assertEquals(ContentType.IMAGE_JPEG, encoded.contentType());
+        assertDecodable(encoded);
+    }
+
+    @Test
+    void firstEncoderWithinLimitIsUsed() throws IOException {
+        final var image = noise();
+        final var png = new PngUploadEncoder(9).encode(image);
+        final var jpeg = new JpegUploadEncoder(.5f).encode(image);
+        assertTrue(jpeg.data().length < png.data().length);
+
+        final var encoder = new AutoUploadEncoder(
+                jpeg.data().length,
+                List.of(new TiffG4UploadEncoder()),
+                List.of(new PngUploadEncoder(9), new JpegUploadEncoder(.5f))
+        );
+        assertEquals(ContentType.IMAGE_JPEG, encoder.encode(image).contentType());
+    }
+
+    @Test
+    void smallestResultIsUsedIfNoEncoderStaysWithinLimit() throws IOException {
+        final var encoder = new AutoUploadEncoder(
+                1,
+                List.of(new TiffG4UploadEncoder()),
+                List.of(new PngUploadEncoder(9), new JpegUploadEncoder(.5f))
+        );
+        final var encoded = encoder.encode(noise());
+        assertEquals(ContentType.IMAGE_JPEG, encoded.contentType());
+        assertDecodable(encoded);
+    }
+}
@@ -0,0 +1,174 @@
+package de.niklasfi.aocr;
+
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import de.niklasfi.aocr.azure.dto.Language;
+import de.niklasfi.aocr.azure.dto.Line;
+import de.niklasfi.aocr.azure.dto.ReadResult;
+import de.niklasfi.aocr.azure.dto.Unit;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AzurePdfAnnotatorTest {
+    private final AzurePdfAnnotator annotator = new AzurePdfAnnotator();
+
+    private static AnalyzeResult analyzeResult(int width, int height, String text) {
+        return analyzeResult(width, height, 1, text);
+    }
+
+    /**
+     * @param scale scale of the uploaded image relative to an image of 100 x 40 pixels
+     */
+    private static AnalyzeResult analyzeResult(int width, int height, float scale, String text) {
+        final var boundingBox = new float[]{10, 10, 90, 10, 90, 30, 10, 30};
+        for (int idx = 0; idx < boundingBox.length; idx++) {
+            boundingBox[idx] *= scale;
+        }
+        final var line = new Line(boundingBox, "en", text, List.of(), null);
+        return new AnalyzeResult(
+                List.of(new ReadResult(1, 0, width, height, Unit.PIXEL, Language.ENGLISH, List.of(line))),
+                "3.2.0",
+                "2022-04-30"
+        );
+    }
+
+    /**
+     * @return x and y of the first glyph of the first page
+     */
+    private static float[] firstGlyphPosition(PDDocument pdDocument) throws IOException {
+        final var position = new float[2];
+        final var stripper = new PDFTextStripper() {
+            @Override
+            protected void writeString(String text, List<TextPosition> textPositions) {
+                if (position[0] == 0 && !textPositions.isEmpty()) {
+                    position[0] = textPositions.getFirst().getXDirAdj();
+                    position[1] = textPositions.getFirst().getYDirAdj();
+                }
+            }
+        };
+        stripper.getText(pdDocument);
+        return position;
+    }
+
+    private static PDDocument reload(PDDocument pdDocument) throws IOException {
+        final var os = new ByteArrayOutputStream();
+        pdDocument.save(os);
+        return Loader.loadPDF(os.toByteArray());
+    }
+
+    private static BufferedImage image(int type) {
+        final var image = new BufferedImage(100, 40, type);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x + y) % 3 == 0 ? 0xffffff : (x * 2) << 16 | (y * 5) << 8 | 0x40);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * gray samples are embedded as they are, while java converts them from linear gray when asked for rgb values
+     */
+    private static int expectedRgb(BufferedImage image, int x, int y) {
+        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            return image.getRGB(x, y);
+        }
+        final var gray = image.getRaster().getSample(x, y, 0);
+        return 0xff000000 | gray << 16 | gray << 8 | gray;
+    }
+
+    @Test
+    void addsPreparedPagesWithImageAndText() throws IOException {
+        for (final var type : List.of(BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY)) {
+            final var image = image(type);
+            final var font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            final var annotatedImage = new AnnotatedImage(image, Optional.of(analyzeResult(100, 40, "Hello")));
+
+            try (final var pdDocument = new PDDocument()) {
+                // preparation happens before and independently of the document
+                final var preparedPage = annotator.preparePage(font, annotatedImage);
+                annotator.addPreparedPage(pdDocument, font, preparedPage);
+
+                try (final var reloaded = reload(pdDocument)) {
+                    assertEquals("Hello", new PDFTextStripper().getText(reloaded).strip());
+
+                    final var resources = reloaded.getPage(0).getResources();
+                    final var xObjectName = resources.getXObjectNames().iterator().next();
+                    final var embedded = ((PDImageXObject) resources.getXObject(xObjectName)).getImage();
+                    for (int y = 0; y < image.getHeight(); y++) {
+                        for (int x = 0; x < image.getWidth(); x++) {
+                            assertEquals(expectedRgb(image, x, y), embedded.getRGB(x, y), "pixel %d,%d of type %d".formatted(x, y, type));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void placesResultsOfScaledUploadsOnFullResolutionImage() throws IOException {
+        final var font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+        final var image = image(BufferedImage.TYPE_INT_RGB);
+        final var positions = new ArrayList<float[]>();
+        // uploaded at full resolution, and scaled down to half of it
+        for (final var result : List.of(analyzeResult(100, 40, 1, "Hello"), analyzeResult(50, 20, .5f, "Hello"))) {
+            try (final var pdDocument = new PDDocument()) {
+                final var preparedPage = annotator.preparePage(font, new AnnotatedImage(image, Optional.of(result)));
+                annotator.addPreparedPage(pdDocument, font, preparedPage);
+                try (final var reloaded = reload(pdDocument)) {
+                    positions.add(firstGlyphPosition(reloaded));
+                }
+            }
+        }
+        assertTrue(positions.getFirst()[0] > 0);
+        assertArrayEquals(positions.get(0), positions.get(1), .01f);
+    }
+
+    @Test
+    void appendsPreparedTextLayerToExistingContent() throws IOException {
+        final var font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+        try (final var pdDocument = new PDDocument()) {
+            final var pdPage = new PDPage(new PDRectangle(200, 80));
+            pdDocument.addPage(pdPage);
+            try (final var cs = new PDPageContentStream(pdDocument, pdPage)) {
+                cs.beginText();
+                cs.setFont(font, 10);
+                cs.newLineAtOffset(5, 5);
+                cs.showText("Vector");
+                cs.endText();
+            }
+
+            final var preparedPage = annotator.prepareTextLayer(
+                    font,
+                    AzurePdfAnnotator.PageGeometry.of(pdPage),
+                    new AnnotatedImage(image(BufferedImage.TYPE_INT_RGB), Optional.of(analyzeResult(100, 40, "Layer")))
+            );
+            annotator.addPreparedTextLayer(pdDocument, pdPage, font, preparedPage);
+
+            try (final var reloaded = reload(pdDocument)) {
+                final var text = new PDFTextStripper().getText(reloaded);
+                assertTrue(text.contains("Vector"), text);
+                assertTrue(text.contains("Layer"), text);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.niklasfi.aocr;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BatchOcrTest {
+    @TempDir
+    Path directory;
+
+    private Path input;
+    private Path output;
+
+    @BeforeEach
+    void createFiles() throws IOException {
+        input = directory.resolve("in");
+        output = input.resolve("out");
+        for (final var file : List.of("a.pdf", "sub/b.PDF", "sub/c.pdf", "notes.txt", "out/a.pdf")) {
+            Files.createDirectories(input.resolve(file).getParent());
+            Files.createFile(input.resolve(file));
+        }
+    }
+
+    @Test
+    void searchesDirectoryForPdfFiles() {
+        // outputs of a previous run within the input directory are left out
+        assertEquals(
+                List.of(
+                        new BatchOcr.Job(input.resolve("a.pdf"), output.resolve("a.pdf")),
+                        new BatchOcr.Job(input.resolve("sub/b.PDF"), output.resolve("sub/b.PDF")),
+                        new BatchOcr.Job(input.resolve("sub/c.pdf"), output.resolve("sub/c.pdf"))
+                ),
+                BatchOcr.jobs(input.toString(), output)
+        );
+    }
+
+    @Test
+    void matchesGlobRelativeToItsBase() {
+        // the base ends before the first path element containing glob characters
+        assertEquals(
+                List.of(
+                        new BatchOcr.Job(input.resolve("sub/b.PDF"), output.resolve("sub/b.PDF")),
+                        new BatchOcr.Job(input.resolve("sub/c.pdf"), output.resolve("sub/c.pdf"))
+                ),
+                BatchOcr.jobs(input + "/s*/*", output)
+        );
+        assertEquals(
+                List.of(new BatchOcr.Job(input.resolve("sub/c.pdf"), output.resolve("c.pdf"))),
+                BatchOcr.jobs(input + "/sub/*.pdf", output)
+        );
+    }
+
+    @Test
+    void readsFileList() throws IOException {
+        final var list = directory.resolve("list.txt");
+        Files.write(list, List.of(
+                "# comment",
+                input.resolve("a.pdf").toString(),
+                "",
+                "  " + input.resolve("sub/b.PDF") + "  "
+        ));
+        assertEquals(
+                List.of(
+                        new BatchOcr.Job(input.resolve("a.pdf"), output.resolve("a.pdf")),
+                        new BatchOcr.Job(input.resolve("sub/b.PDF"), output.resolve("b.PDF"))
+                ),
+                BatchOcr.jobs("@" + list, output)
+        );
+    }
+
+    @Test
+    void acceptsSingleFile() {
+        assertEquals(
+                List.of(new BatchOcr.Job(input.resolve("sub/c.pdf"), output.resolve("c.pdf"))),
+                BatchOcr.jobs(input.resolve("sub/c.pdf").toString(), output)
+        );
+    }
+
+    @Test
+    void rejectsInputsWithSameOutput() throws IOException {
+        final var list = directory.resolve("list.txt");
+        Files.write(list, List.of(input.resolve("a.pdf").toString(), input.resolve("out/a.pdf").toString()));
+        assertThrows(RuntimeException.class, () -> BatchOcr.jobs("@" + list, output));
+    }
+}
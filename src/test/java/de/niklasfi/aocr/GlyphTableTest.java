@@ -0,0 +1,37 @@
+package de.niklasfi.aocr;
+
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class GlyphTableTest {
+    private final PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+
+    @Test
+    void keepsEncodableText() throws IOException {
+        final var text = "Grüße, 42 €";
+        final var stripped = GlyphTable.of(font).strip(font, text);
+        assertSame(text, stripped.text());
+        assertEquals(font.getStringWidth(text), stripped.width(), 1e-3);
+    }
+
+    @Test
+    void stripsCharactersWhichCannotBeEncoded() throws IOException {
+        final var stripped = GlyphTable.of(font).strip(font, "a漢b😀c");
+        assertEquals("abc", stripped.text());
+        assertEquals(font.getStringWidth("abc"), stripped.width(), 1e-3);
+    }
+
+    @Test
+    void sharesTablesBetweenFontsWithTheSameName() {
+        assertSame(
+                GlyphTable.of(font),
+                GlyphTable.of(new PDType1Font(Standard14Fonts.FontName.HELVETICA))
+        );
+    }
+}
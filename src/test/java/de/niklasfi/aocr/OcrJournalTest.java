@@ -0,0 +1,91 @@
+package de.niklasfi.aocr;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import de.niklasfi.aocr.azure.api.OperationLocation;
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcrJournalTest {
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+
+    @TempDir
+    Path directory;
+
+    private static AnalyzeResult analyzeResult(String version) {
+        return new AnalyzeResult(List.of(), version, "2022-04-30");
+    }
+
+    private Path path() {
+        return directory.resolve("output.pdf" + OcrJournal.SUFFIX);
+    }
+
+    @Test
+    void resumesCompletedAndPendingPages() {
+        try (final var journal = new OcrJournal(path(), "input", objectMapper)) {
+            journal.recordSubmitted(0, new OperationLocation("op-0"));
+            journal.recordCompleted(0, analyzeResult("0"));
+            journal.recordSubmitted(1, new OperationLocation("op-1"));
+        }
+
+        try (final var journal = new OcrJournal(path(), "input", objectMapper)) {
+            assertEquals(Optional.of(analyzeResult("0")), journal.completedResult(0));
+            assertTrue(journal.pendingOperation(0).isEmpty());
+            assertTrue(journal.completedResult(1).isEmpty());
+            assertEquals(Optional.of(new OperationLocation("op-1")), journal.pendingOperation(1));
+            assertTrue(journal.pendingOperation(2).isEmpty());
+        }
+    }
+
+    @Test
+    void discardsJournalOfOtherInput() {
+        try (final var journal = new OcrJournal(path(), "input", objectMapper)) {
+            journal.recordCompleted(0, analyzeResult("0"));
+        }
+
+        try (final var journal = new OcrJournal(path(), "other input", objectMapper)) {
+            assertTrue(journal.completedResult(0).isEmpty());
+        }
+        try (final var journal = new OcrJournal(path(), "input", objectMapper)) {
+            assertTrue(journal.completedResult(0).isEmpty());
+        }
+    }
+
+    @Test
+    void ignoresTruncatedEntry() throws IOException {
+        try (final var journal = new OcrJournal(path(), "input", objectMapper)) {
+            journal.recordCompleted(0, analyzeResult("0"));
+        }
+        Files.writeString(path(), "{\"page\":1,\"analyzeRes", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (final var journal = new OcrJournal(path(), "input", objectMapper)) {
+            assertEquals(Optional.of(analyzeResult("0")), journal.completedResult(0));
+            assertTrue(journal.completedResult(1).isEmpty());
+            journal.recordCompleted(2, analyzeResult("2"));
+        }
+        try (final var journal = new OcrJournal(path(), "input", objectMapper)) {
+            assertEquals(Optional.of(analyzeResult("2")), journal.completedResult(2));
+        }
+    }
+
+    @Test
+    void deleteRemovesJournal() {
+        final var journal = new OcrJournal(path(), "input", objectMapper);
+        journal.recordCompleted(0, analyzeResult("0"));
+        journal.delete();
+        assertFalse(Files.exists(path()));
+    }
+}
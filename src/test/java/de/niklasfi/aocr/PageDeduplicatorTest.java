@@ -0,0 +1,116 @@
+package de.niklasfi.aocr;
+
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageDeduplicatorTest {
+    private static final AnalyzeResult RESULT = new AnalyzeResult(List.of(), "3.2", "2022-04-30");
+
+    /**
+     * @param inkedCells number of cells at the start of the page which are covered by ink
+     */
+    private static PageSignature signature(double inkCoverage, int inkedCells) {
+        final var cells = new byte[4096];
+        Arrays.fill(cells, 0, inkedCells, (byte) 200);
+        return new PageSignature(inkCoverage, cells);
+    }
+
+    @Test
+    void detectsBlankPages() {
+        final var deduplicator = PageDeduplicator.buildDefault();
+        assertTrue(deduplicator.isBlank(signature(.0001, 0)));
+        assertFalse(deduplicator.isBlank(signature(.05, 0)));
+        assertEquals(1, deduplicator.blankPages());
+
+        assertFalse(new PageDeduplicator(0, PageDeduplicator.Matching.IDENTICAL, 10).isBlank(signature(0, 0)));
+    }
+
+    @Test
+    void reusesResultOfIdenticalPage() {
+        final var deduplicator = PageDeduplicator.buildDefault();
+        final var first = new CompletableFuture<Optional<AnalyzeResult>>();
+        assertTrue(deduplicator.findOrRegister(signature(.05, 100), new byte[]{1}, first).isEmpty());
+
+        // in flight
+        final var duplicate = deduplicator.findOrRegister(signature(.05, 100), new byte[]{1}, new CompletableFuture<>());
+        assertSame(first, duplicate.orElseThrow());
+        first.complete(Optional.of(RESULT));
+        assertSame(RESULT, duplicate.get().join().orElseThrow());
+
+        // a page with the same signature, but other pixels
+        assertTrue(deduplicator.findOrRegister(signature(.05, 100), new byte[]{2}, new CompletableFuture<>()).isEmpty());
+        assertEquals(1, deduplicator.duplicatePages());
+    }
+
+    @Test
+    void reusesResultOfSimilarPage() {
+        final var deduplicator = new PageDeduplicator(0, PageDeduplicator.Matching.SIMILAR, 10);
+        final var first = new CompletableFuture<Optional<AnalyzeResult>>();
+        assertTrue(deduplicator.findOrRegister(signature(.05, 100), null, first).isEmpty());
+        assertSame(first, deduplicator.findOrRegister(signature(.051, 100), null, new CompletableFuture<>()).orElseThrow());
+
+        // a differing cell, or too much more ink
+        assertTrue(deduplicator.findOrRegister(signature(.05, 101), null, new CompletableFuture<>()).isEmpty());
+        assertTrue(deduplicator.findOrRegister(signature(.1, 100), null, new CompletableFuture<>()).isEmpty());
+        assertEquals(1, deduplicator.duplicatePages());
+    }
+
+    @Test
+    void digestsPixels() {
+        final var image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        final var copy = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        assertArrayEquals(PageDeduplicator.digest(PageImage.of(image)), PageDeduplicator.digest(PageImage.of(copy)));
+
+        copy.setRGB(19, 9, 0x010000);
+        assertFalse(Arrays.equals(PageDeduplicator.digest(PageImage.of(image)), PageDeduplicator.digest(PageImage.of(copy))));
+        // of the image rather than of its whole raster
+        assertArrayEquals(
+                PageDeduplicator.digest(PageImage.of(image.getSubimage(0, 0, 10, 10))),
+                PageDeduplicator.digest(PageImage.of(copy.getSubimage(0, 0, 10, 10)))
+        );
+    }
+
+    @Test
+    void forgetsFailedPages() {
+        final var deduplicator = PageDeduplicator.buildDefault();
+        final var failed = new CompletableFuture<Optional<AnalyzeResult>>();
+        deduplicator.findOrRegister(signature(.05, 1), new byte[]{1}, failed);
+        failed.complete(Optional.empty());
+
+        final var retried = new CompletableFuture<Optional<AnalyzeResult>>();
+        assertTrue(deduplicator.findOrRegister(signature(.05, 1), new byte[]{1}, retried).isEmpty());
+        assertSame(retried, deduplicator.findOrRegister(signature(.05, 1), new byte[]{1}, new CompletableFuture<>()).orElseThrow());
+    }
+
+    @Test
+    void forgetsLeastRecentlyMatchedPages() {
+        final var deduplicator = new PageDeduplicator(0, PageDeduplicator.Matching.IDENTICAL, 2);
+        final var first = new CompletableFuture<Optional<AnalyzeResult>>();
+        deduplicator.findOrRegister(signature(.05, 1), new byte[]{1}, first);
+        deduplicator.findOrRegister(signature(.05, 2), new byte[]{2}, new CompletableFuture<>());
+        deduplicator.findOrRegister(signature(.05, 1), new byte[]{1}, new CompletableFuture<>());
+        deduplicator.findOrRegister(signature(.05, 4), new byte[]{4}, new CompletableFuture<>());
+
+        assertSame(first, deduplicator.findOrRegister(signature(.05, 1), new byte[]{1}, new CompletableFuture<>()).orElseThrow());
+        assertTrue(deduplicator.findOrRegister(signature(.05, 2), new byte[]{2}, new CompletableFuture<>()).isEmpty());
+    }
+
+    @Test
+    void detectionOfDuplicatesMayBeDisabled() {
+        final var deduplicator = new PageDeduplicator(.0005, PageDeduplicator.Matching.NONE, 10);
+        deduplicator.findOrRegister(signature(.05, 1), new byte[]{1}, new CompletableFuture<>());
+        assertTrue(deduplicator.findOrRegister(signature(.05, 1), new byte[]{1}, new CompletableFuture<>()).isEmpty());
+    }
+}
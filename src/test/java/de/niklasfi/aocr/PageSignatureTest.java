@@ -0,0 +1,98 @@
+package de.niklasfi.aocr;
+
+import org.apache.hc.core5.http.ContentType;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageSignatureTest {
+
+    /**
+     * Draws a page of about A4 at 150 dpi with a dark scanner edge, specks and optionally lines of random letters.
+     *
+     * @param seed  seed of the letters
+     * @param shift horizontal offset of the letters in pixels
+     */
+    private static BufferedImage page(int type, long seed, int shift, boolean text) {
+        final var image = new BufferedImage(1240, 1760, type);
+        final var graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, 30, image.getHeight());
+        if (text) {
+            final var random = new Random(seed);
+            graphics.setFont(new Font(Font.SERIF, Font.PLAIN, 20));
+            for (int y = 150; y < 1600; y += 30) {
+                final var line = new StringBuilder();
+                for (int idx = 0; idx < 60; idx++) {
+                    line.append((char) ('a' + random.nextInt(26)));
+                }
+                graphics.drawString(line.toString(), 125 + shift, y);
+            }
+        }
+        graphics.dispose();
+        final var specks = new Random(seed + shift);
+        for (int idx = 0; idx < 100; idx++) {
+            image.setRGB(specks.nextInt(image.getWidth()), specks.nextInt(image.getHeight()), 0);
+        }
+        return image;
+    }
+
+    @Test
+    void measuresInkCoverage() {
+        for (final var type : new int[]{BufferedImage.TYPE_BYTE_BINARY, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB}) {
+            assertTrue(PageSignature.of(page(type, 1, 0, false)).inkCoverage() < .0005);
+            assertTrue(PageSignature.of(page(type, 1, 0, true)).inkCoverage() > .01);
+        }
+    }
+
+    @Test
+    void duplicatesAreClose() {
+        final var signature = PageSignature.of(page(BufferedImage.TYPE_BYTE_GRAY, 1, 0, true));
+        // placed differently on the scanner
+        final var duplicate = PageSignature.of(page(BufferedImage.TYPE_BYTE_GRAY, 1, 8, true));
+        final var other = PageSignature.of(page(BufferedImage.TYPE_BYTE_GRAY, 2, 0, true));
+
+        assertEquals(0, signature.distance(signature));
+        assertEquals(0, signature.distance(duplicate));
+        assertTrue(signature.distance(other) > 20);
+    }
+
+    @Test
+    void wordsMakeADifference() {
+        final var image = page(BufferedImage.TYPE_BYTE_GRAY, 1, 0, true);
+        final var signature = PageSignature.of(image);
+        // erase a word in the middle of the page
+        final var graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(300, 580, 80, 25);
+        graphics.dispose();
+
+        assertTrue(PageSignature.of(image).distance(signature) > 0);
+    }
+
+    @Test
+    void decodesEncodedImagesSubsampled() throws IOException {
+        final var image = page(BufferedImage.TYPE_BYTE_GRAY, 1, 0, true);
+        final var os = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", os);
+        final var encoded = new EncodedImage(os.toByteArray(), ContentType.IMAGE_PNG);
+
+        // pretend the image is large enough to be subsampled with a stride of 2
+        final var fromEncoded = PageSignature.of(encoded, 2 * image.getWidth(), 2 * image.getHeight());
+        final var fromImage = PageSignature.of(image, 2);
+
+        assertEquals(fromImage.inkCoverage(), fromEncoded.inkCoverage());
+        assertEquals(0, fromImage.distance(fromEncoded));
+    }
+}
@@ -0,0 +1,85 @@
+package de.niklasfi.aocr;
+
+import de.niklasfi.aocr.azure.dto.AnalyzeResult;
+import de.niklasfi.aocr.azure.dto.ReadResult;
+import de.niklasfi.aocr.azure.dto.Unit;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfChunkTest {
+
+    private static ReadResult readResult(int page, float width) {
+        return new ReadResult(page, 0, width, 11, Unit.INCH, null, List.of());
+    }
+
+    @Test
+    void splitsPagesOffDocument() throws IOException {
+        try (final var document = new PDDocument()) {
+            for (int idx = 0; idx < 5; idx++) {
+                document.addPage(new PDPage(new PDRectangle(100 + idx, 100)));
+            }
+            final var chunk = PdfChunk.split(document, 2, 2);
+            assertTrue(chunk.contains(3));
+            assertFalse(chunk.contains(4));
+
+            final var submitted = new AtomicInteger();
+            chunk.result(2, pdf -> {
+                submitted.incrementAndGet();
+                try (final var part = Loader.loadPDF(pdf)) {
+                    assertEquals(2, part.getNumberOfPages());
+                    assertEquals(102, part.getPage(0).getMediaBox().getWidth());
+                    assertEquals(103, part.getPage(1).getMediaBox().getWidth());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return Optional.empty();
+            });
+            // the result is shared by all pages of the chunk
+            chunk.result(3, pdf -> {
+                submitted.incrementAndGet();
+                return Optional.empty();
+            });
+            assertEquals(1, submitted.get());
+        }
+    }
+
+    @Test
+    void mapsReadResultsToPages() {
+        final var analyzeResult = new AnalyzeResult(
+                List.of(readResult(3, 3), readResult(1, 1), readResult(7, 7)),
+                "3.2",
+                "2022-04-30"
+        );
+
+        final var pageResults = PdfChunk.pageResults(Optional.of(analyzeResult), 3);
+
+        assertEquals(3, pageResults.size());
+        assertEquals(1, pageResults.get(0).orElseThrow().readResults().getFirst().width());
+        assertTrue(pageResults.get(1).isEmpty());
+        final var third = pageResults.get(2).orElseThrow();
+        assertEquals(1, third.readResults().size());
+        // shaped like the result of a single image
+        assertEquals(1, third.readResults().getFirst().page());
+        assertEquals(3, third.readResults().getFirst().width());
+        assertEquals("2022-04-30", third.modelVersion());
+    }
+
+    @Test
+    void failedAnalysisLeavesAllPagesWithoutResult() {
+        final var chunk = new PdfChunk(4, 2, new byte[0]);
+        assertTrue(chunk.result(5, pdf -> Optional.empty()).isEmpty());
+        assertTrue(chunk.result(4, pdf -> Optional.empty()).isEmpty());
+    }
+}
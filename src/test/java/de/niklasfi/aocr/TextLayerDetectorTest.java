@@ -0,0 +1,74 @@
+package de.niklasfi.aocr;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextLayerDetectorTest {
+    private static final String LINE = "The quick brown fox jumps over the lazy dog.";
+
+    private final TextLayerDetector detector = TextLayerDetector.buildDefault();
+
+    /**
+     * Adds an A4 page with lines of text and optionally a full page image below them.
+     */
+    private static void addPage(PDDocument document, int lines, boolean scan) throws IOException {
+        final var page = new PDPage(PDRectangle.A4);
+        document.addPage(page);
+        try (final var content = new PDPageContentStream(document, page)) {
+            if (scan) {
+                final var image = LosslessFactory.createFromImage(
+                        document,
+                        new BufferedImage(100, 141, BufferedImage.TYPE_BYTE_GRAY)
+                );
+                content.drawImage(image, 0, 0, PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+            }
+            content.beginText();
+            content.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 10);
+            content.newLineAtOffset(50, 780);
+            for (int idx = 0; idx < lines; idx++) {
+                content.showText(LINE);
+                content.newLineAtOffset(0, -14);
+            }
+            content.endText();
+        }
+    }
+
+    @Test
+    void detectsTextPages() throws IOException {
+        try (final var document = new PDDocument()) {
+            addPage(document, 40, false);
+            addPage(document, 0, false);
+            assertTrue(detector.hasText(document, 0));
+            assertFalse(detector.hasText(document, 1));
+        }
+    }
+
+    @Test
+    void scansNeedTextAllOverThePage() throws IOException {
+        try (final var document = new PDDocument()) {
+            // e.g. a scan with a stamp
+            addPage(document, 2, true);
+            // e.g. a scan which has been run through ocr before
+            addPage(document, 40, true);
+
+            final var stamped = detector.analyze(document, 0);
+            assertEquals(1, stamped.imageCoverage(), .01);
+            assertEquals(2 * LINE.replace(" ", "").length(), stamped.mappedGlyphs());
+            assertFalse(detector.hasText(document, 0));
+            assertTrue(detector.hasText(document, 1));
+        }
+    }
+}
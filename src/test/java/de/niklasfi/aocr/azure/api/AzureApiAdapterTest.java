@@ -3,6 +3,8 @@ package de.niklasfi.aocr.azure.api;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpServer;
+import de.niklasfi.aocr.azure.core.concurrent.AdaptiveRateLimiter;
 import de.niklasfi.aocr.azure.dto.Language;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
@@ -10,8 +12,15 @@ import org.apache.hc.core5.http.ContentType;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @Slf4j
 class AzureApiAdapterTest {
@@ -45,4 +54,56 @@ class AzureApiAdapterTest {
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void failsIfThrottledUntilTimeout() throws IOException {
+        final var analyzeRequests = new AtomicInteger();
+        final var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/vision/v3.2/read/analyze", exchange -> {
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                analyzeRequests.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(429, -1);
+            }
+        });
+        server.start();
+        final var analyzeLimiter = AdaptiveRateLimiter.buildDefault();
+        final var initialRate = analyzeLimiter.getRate();
+        try (final var api = new AzureApiAdapter(
+                new AzureUriBuilder("http://%s:%d".formatted(server.getAddress().getHostString(), server.getAddress().getPort())),
+                "key",
+                HttpClients.custom().disableAutomaticRetries().build(),
+                JsonMapper.builder().addModule(new JavaTimeModule()).build(),
+                analyzeLimiter,
+                AdaptiveRateLimiter.buildDefault()
+        )) {
+            final var begin = System.nanoTime();
+            assertThrows(
+                    IOException.class,
+                    () -> api.waitAnalyze(new byte[]{0}, ContentType.IMAGE_PNG, null, Duration.ofMillis(500))
+            );
+            // throttling is left to the limiter, which holds further attempts back until Retry-After has passed
+            assertTrue(analyzeRequests.get() >= 1);
+            assertTrue(analyzeLimiter.getRate() < initialRate);
+            assertTrue(System.nanoTime() - begin >= Duration.ofMillis(500).toNanos());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void closeStopsPolling() {
+        final var api = new AzureApiAdapter(
+                new AzureUriBuilder("http://localhost"),
+                "key",
+                HttpClients.custom().disableAutomaticRetries().build(),
+                JsonMapper.builder().addModule(new JavaTimeModule()).build()
+        );
+        api.close();
+        assertThrows(
+                RejectedExecutionException.class,
+                () -> api.waitResult(new OperationLocation("http://localhost", "op"), Duration.ofSeconds(1))
+        );
+    }
+}
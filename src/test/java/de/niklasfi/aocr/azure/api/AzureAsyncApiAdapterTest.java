@@ -0,0 +1,155 @@
+package de.niklasfi.aocr.azure.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpServer;
+import de.niklasfi.aocr.azure.dto.Language;
+import de.niklasfi.aocr.azure.dto.Status;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.core5.http.ContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Slf4j
+class AzureAsyncApiAdapterTest {
+    private static final byte[] DATA = "image".getBytes(StandardCharsets.UTF_8);
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final AtomicInteger analyzeRequests = new AtomicInteger();
+    private final AtomicInteger resultRequests = new AtomicInteger();
+    private HttpServer server;
+
+    @AfterEach
+    void shutDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Starts a read api which throttles the first throttledAnalyzeRequests analyze requests and reports an accepted
+     * operation as running on its first poll.
+     */
+    private void startServer(int throttledAnalyzeRequests) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/vision/v3.2/read/analyze", exchange -> {
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                if (analyzeRequests.incrementAndGet() <= throttledAnalyzeRequests) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    exchange.sendResponseHeaders(429, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Operation-Location", endpoint() + "/vision/v3.2/read/analyzeResults/op");
+                exchange.sendResponseHeaders(202, -1);
+            }
+        });
+        server.createContext("/vision/v3.2/read/analyzeResults/op", exchange -> {
+            try (exchange) {
+                final var status = resultRequests.incrementAndGet() == 1 ? "running" : "succeeded";
+                final var body = "{\"status\":\"%s\"}".formatted(status).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        });
+        server.start();
+    }
+
+    private String endpoint() {
+        return "http://%s:%d".formatted(server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    private AzureAsyncApiAdapter adapter() {
+        return new AzureAsyncApiAdapter(
+                new AzureUriBuilder(endpoint()),
+                "key",
+                AzureAsyncApiAdapter.createHttpClient(2),
+                objectMapper,
+                scheduler
+        );
+    }
+
+    @Test
+    void retriesThrottledRequestAndPollsUntilSucceeded() throws IOException {
+        startServer(1);
+        try (final var api = adapter()) {
+            final var result = api.waitAnalyze(DATA, ContentType.IMAGE_PNG, null, TIMEOUT)
+                    .thenCompose(location -> api.waitResult(location, TIMEOUT))
+                    .join();
+            assertEquals(Status.SUCCEEDED, result.status());
+        }
+        assertEquals(2, analyzeRequests.get());
+        assertEquals(2, resultRequests.get());
+        // the scheduler belongs to the caller
+        assertFalse(scheduler.isShutdown());
+    }
+
+    @Test
+    void failsIfThrottledUntilTimeout() throws IOException {
+        startServer(Integer.MAX_VALUE);
+        try (final var api = adapter()) {
+            final var e = assertThrows(
+                    CompletionException.class,
+                    () -> api.waitAnalyze(DATA, ContentType.IMAGE_PNG, null, Duration.ofMillis(500)).join()
+            );
+            assertInstanceOf(IOException.class, e.getCause());
+        }
+    }
+
+    @Test
+    public void analyzeWaitResult() {
+        final String endpoint = System.getenv("AOCR_AZURE_ENDPOINT");
+        final String key = System.getenv("AOCR_AZURE_KEY");
+
+        if (endpoint == null || key == null) {
+            log.warn("not executing test. Environment variables AOCR_AZURE_ENDPOINT and AOCR_AZURE_KEY must be set");
+            return;
+        }
+
+        final AzureUriBuilder uriBuilder = new AzureUriBuilder(endpoint);
+
+        final byte[] pdfBytes;
+        try (final var is = getClass().getResourceAsStream("/LaTeXTemplates_tufte-essay_v2.0.pdf")) {
+            pdfBytes = Objects.requireNonNull(is).readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        try (final var api = new AzureAsyncApiAdapter(
+                uriBuilder,
+                key,
+                AzureAsyncApiAdapter.createHttpClient(4),
+                objectMapper,
+                scheduler
+        )) {
+            final var result = api.waitAnalyze(pdfBytes, ContentType.APPLICATION_PDF, Language.GERMAN, Duration.ofSeconds(30))
+                    .thenCompose(location -> {
+                        log.info("submitted operation {}", location.operationId());
+                        return api.waitResult(location, Duration.ofSeconds(30));
+                    })
+                    .join();
+            assertEquals(Status.SUCCEEDED, result.status());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.niklasfi.aocr.azure.api;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import de.niklasfi.aocr.azure.dto.Status;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ReadResultHeaderResponseHandlerTest {
+    private final ReadResultHeaderResponseHandler handler = new ReadResultHeaderResponseHandler(
+            JsonMapper.builder().addModule(new JavaTimeModule()).build()
+    );
+
+    private ReadResultHeader handle(String body) throws HttpException, IOException {
+        final var response = new BasicClassicHttpResponse(200);
+        response.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        return handler.handleResponse(response);
+    }
+
+    @Test
+    void stopsReadingOnceStatusIsNotFinal() throws HttpException, IOException {
+        // everything after the status is never looked at, not even if it is malformed
+        final var header = handle("{\"status\":\"running\",\"createdDateTime\":\"2024-01-01T00:00:00Z\",\"analyzeRes");
+        assertEquals(Status.RUNNING, header.status());
+        assertNull(header.analyzeResult());
+    }
+
+    @Test
+    void decodesFinishedOperation() throws HttpException, IOException {
+        final var header = handle("""
+                {
+                  "status": "succeeded",
+                  "createdDateTime": "2024-01-01T00:00:00Z",
+                  "lastUpdatedDateTime": "2024-01-01T00:00:02Z",
+                  "unknownField": {"nested": [1, 2, 3]},
+                  "analyzeResult": {
+                    "version": "3.2.0",
+                    "modelVersion": "2022-04-30",
+                    "readResults": [
+                      {"page": 1, "angle": 0, "width": 10, "height": 5, "unit": "pixel", "lines": [
+                        {
+                          "boundingBox": [1, 1, 9, 1.5, 9, 4, 1, 3.5],
+                          "text": "hello",
+                          "words": [{"boundingBox": [1, 1, 9, 1.5, 9, 4, 1, 3.5], "text": "hello", "confidence": 0.9}]
+                        }
+                      ]}
+                    ]
+                  }
+                }
+                """);
+        assertEquals(Status.SUCCEEDED, header.status());
+        assertNotNull(header.createdDateTime());
+        assertNotNull(header.lastUpdatedDateTime());
+        assertEquals("3.2.0", header.analyzeResult().version());
+        assertEquals(1, header.analyzeResult().readResults().size());
+
+        final var line = header.analyzeResult().readResults().get(0).lines().get(0);
+        assertArrayEquals(new float[]{1, 1, 9, 1.5f, 9, 4, 1, 3.5f}, line.boundingBox());
+        assertArrayEquals(new float[]{1, 1, 9, 1.5f, 9, 4, 1, 3.5f}, line.words().get(0).boundingBox());
+    }
+}
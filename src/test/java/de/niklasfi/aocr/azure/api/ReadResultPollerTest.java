@@ -0,0 +1,78 @@
+package de.niklasfi.aocr.azure.api;
+
+import de.niklasfi.aocr.azure.core.http.HttpRetryResponseHandler;
+import de.niklasfi.aocr.azure.dto.ReadResultHeader;
+import de.niklasfi.aocr.azure.dto.Status;
+import de.niklasfi.aocr.metrics.InMemoryOcrMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReadResultPollerTest {
+
+    private static ReadResultHeader header(Status status) {
+        return new ReadResultHeader(status, null, null, null);
+    }
+
+    @Test
+    void pollsUntilOperationHasFinished() {
+        final var polls = new AtomicInteger();
+        try (final var poller = new ReadResultPoller(
+                location -> CompletableFuture.completedFuture(
+                        header(polls.incrementAndGet() < 3 ? Status.RUNNING : Status.SUCCEEDED)
+                ),
+                Executors.newSingleThreadScheduledExecutor(),
+                Duration.ofMillis(1),
+                Duration.ofMillis(20)
+        )) {
+            final var result = poller.submit(new OperationLocation("op"), Duration.ofSeconds(10)).join();
+            assertEquals(Status.SUCCEEDED, result.status());
+            assertEquals(3, polls.get());
+            assertEquals(0, poller.outstanding());
+        }
+    }
+
+    @Test
+    void repeatsThrottledPolls() {
+        final var polls = new AtomicInteger();
+        try (final var poller = new ReadResultPoller(
+                location -> polls.incrementAndGet() == 1
+                        ? CompletableFuture.failedFuture(new HttpRetryResponseHandler.HttpResponseRetryException(
+                                429, Duration.ofMillis(10), "throttled"
+                        ))
+                        : CompletableFuture.completedFuture(header(Status.NOT_STARTED)),
+                Executors.newSingleThreadScheduledExecutor(),
+                Duration.ofMillis(1),
+                Duration.ofMillis(20)
+        )) {
+            // notStarted is not final, so the operation is polled until the timeout passes
+            final var result = poller.submit(new OperationLocation("op"), Duration.ofMillis(200)).join();
+            assertEquals(Status.NOT_STARTED, result.status());
+        }
+    }
+
+    @Test
+    void recordsPollsPerOperation() {
+        final var polls = new AtomicInteger();
+        final var metrics = new InMemoryOcrMetrics();
+        try (final var poller = new ReadResultPoller(
+                location -> CompletableFuture.completedFuture(
+                        header(polls.incrementAndGet() < 3 ? Status.RUNNING : Status.SUCCEEDED)
+                ),
+                Executors.newSingleThreadScheduledExecutor(),
+                Duration.ofMillis(1),
+                Duration.ofMillis(20),
+                metrics
+        )) {
+            poller.submit(new OperationLocation("op"), Duration.ofSeconds(10)).join();
+        }
+        final var pollsPerOperation = metrics.report().pollsPerOperation();
+        assertEquals(1, pollsPerOperation.count());
+        assertEquals(3, pollsPerOperation.max());
+    }
+}
@@ -0,0 +1,171 @@
+package de.niklasfi.aocr.azure.api;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpServer;
+import de.niklasfi.aocr.azure.dto.Status;
+import de.niklasfi.aocr.metrics.OcrMetrics;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.ContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShardedAzureApiAdapterTest {
+    private static final byte[] DATA = "image".getBytes(StandardCharsets.UTF_8);
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private enum Behavior {ACCEPT, THROTTLE, FAIL}
+
+    /**
+     * Minimal read api, which only knows the operations submitted to itself
+     */
+    private static class FakeResource implements AutoCloseable {
+        private final HttpServer server;
+        private final Set<String> operations = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger analyzeRequests = new AtomicInteger();
+
+        private FakeResource(Behavior behavior) throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/vision/v3.2/read/analyze", exchange -> {
+                try (exchange) {
+                    exchange.getRequestBody().readAllBytes();
+                    analyzeRequests.incrementAndGet();
+                    switch (behavior) {
+                        case ACCEPT -> {
+                            final var operationId = UUID.randomUUID().toString();
+                            operations.add(operationId);
+                            exchange.getResponseHeaders().set(
+                                    "Operation-Location",
+                                    endpoint() + "/vision/v3.2/read/analyzeResults/" + operationId
+                            );
+                            exchange.sendResponseHeaders(202, -1);
+                        }
+                        case THROTTLE -> {
+                            exchange.getResponseHeaders().set("Retry-After", "60");
+                            exchange.sendResponseHeaders(429, -1);
+                        }
+                        case FAIL -> exchange.sendResponseHeaders(500, -1);
+                    }
+                }
+            });
+            server.createContext("/vision/v3.2/read/analyzeResults/", exchange -> {
+                try (exchange) {
+                    final var path = exchange.getRequestURI().getPath();
+                    if (!operations.contains(path.substring(path.lastIndexOf('/') + 1))) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    final var body = "{\"status\":\"succeeded\"}".getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+            });
+            server.start();
+        }
+
+        private String endpoint() {
+            return "http://%s:%d".formatted(server.getAddress().getHostString(), server.getAddress().getPort());
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+
+    private final List<FakeResource> resources = new ArrayList<>();
+    private final List<ShardedAzureApiAdapter> adapters = new ArrayList<>();
+
+    @AfterEach
+    void closeResources() {
+        adapters.forEach(ShardedAzureApiAdapter::close);
+        resources.forEach(FakeResource::close);
+    }
+
+    private ShardedAzureApiAdapter adapter(Behavior... behaviors) throws IOException {
+        for (final var behavior : behaviors) {
+            resources.add(new FakeResource(behavior));
+        }
+        final var adapter = new ShardedAzureApiAdapter(
+                resources.stream().map(resource -> new ShardedAzureApiAdapter.Resource(resource.endpoint(), "key")).toList(),
+                // the client would otherwise repeat throttled requests itself
+                HttpClients.custom().disableAutomaticRetries().build(),
+                JsonMapper.builder().addModule(new JavaTimeModule()).build(),
+                OcrMetrics.NOOP
+        );
+        adapters.add(adapter);
+        return adapter;
+    }
+
+    @Test
+    void spreadsOutstandingOperationsEvenly() throws IOException {
+        final var adapter = adapter(Behavior.ACCEPT, Behavior.ACCEPT);
+        final var locations = new ArrayList<OperationLocation>();
+        for (int idx = 0; idx < 4; idx++) {
+            locations.add(adapter.waitAnalyze(DATA, ContentType.IMAGE_PNG, null, TIMEOUT));
+        }
+        assertEquals(2, resources.get(0).analyzeRequests.get());
+        assertEquals(2, resources.get(1).analyzeRequests.get());
+        adapter.stats().forEach(stats -> assertEquals(2, stats.outstanding()));
+
+        // each resource only knows its own operations, so results are only found at their owners
+        for (final var location : locations) {
+            assertEquals(Status.SUCCEEDED, adapter.waitResult(location, TIMEOUT).status());
+        }
+        adapter.stats().forEach(stats -> assertEquals(0, stats.outstanding()));
+    }
+
+    @Test
+    void avoidsThrottledResource() throws IOException {
+        final var adapter = adapter(Behavior.THROTTLE, Behavior.ACCEPT);
+        for (int idx = 0; idx < 4; idx++) {
+            final var location = adapter.waitAnalyze(DATA, ContentType.IMAGE_PNG, null, TIMEOUT);
+            assertEquals(resources.get(1).endpoint(), location.endpoint());
+        }
+        assertEquals(1, resources.get(0).analyzeRequests.get());
+        assertFalse(adapter.stats().get(0).available());
+        assertEquals(1, adapter.stats().get(0).recentThrottles(), .01);
+    }
+
+    @Test
+    void repeatsFailedRequestOnOtherResource() throws IOException {
+        final var adapter = adapter(Behavior.FAIL, Behavior.ACCEPT);
+        final var location = adapter.waitAnalyze(DATA, ContentType.IMAGE_PNG, null, TIMEOUT);
+        assertEquals(resources.get(1).endpoint(), location.endpoint());
+        assertFalse(adapter.stats().get(0).available());
+        assertEquals(Status.SUCCEEDED, adapter.waitResult(location, TIMEOUT).status());
+    }
+
+    @Test
+    void failsIfAllResourcesFail() throws IOException {
+        final var adapter = adapter(Behavior.FAIL, Behavior.FAIL);
+        assertThrows(IOException.class, () -> adapter.waitAnalyze(DATA, ContentType.IMAGE_PNG, null, TIMEOUT));
+        assertEquals(1, resources.get(0).analyzeRequests.get());
+        assertEquals(1, resources.get(1).analyzeRequests.get());
+    }
+
+    @Test
+    void rejectsOperationsOfUnknownResources() throws IOException {
+        final var adapter = adapter(Behavior.ACCEPT);
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> adapter.waitResult(new OperationLocation("http://unknown", "op"), TIMEOUT)
+        );
+    }
+}
@@ -0,0 +1,61 @@
+package de.niklasfi.aocr.azure.core.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveRateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private AdaptiveRateLimiter limiter() {
+        return new AdaptiveRateLimiter(10, 1, 20, 2, 1, .5, clock::get);
+    }
+
+    @Test
+    void burstIsAvailableImmediately() {
+        final var limiter = limiter();
+        assertEquals(Duration.ZERO, limiter.reserve());
+        assertEquals(Duration.ZERO, limiter.reserve());
+        // third permit has to wait for a refill at 10 permits per second
+        assertEquals(Duration.ofMillis(100), limiter.reserve());
+        assertEquals(Duration.ofMillis(200), limiter.reserve());
+    }
+
+    @Test
+    void throttlePausesAndSpreadsOutQueuedCallers() {
+        final var limiter = limiter();
+        limiter.reserve();
+        limiter.reserve();
+
+        limiter.onThrottled(Duration.ofSeconds(2));
+        assertEquals(5, limiter.getRate());
+
+        // a second 429 of a call which was in flight during the same pause does not decrease the rate again
+        limiter.onThrottled(Duration.ofSeconds(1));
+        assertEquals(5, limiter.getRate());
+
+        assertEquals(Duration.ofMillis(2200), limiter.reserve());
+        assertEquals(Duration.ofMillis(2400), limiter.reserve());
+
+        clock.addAndGet(Duration.ofMillis(2400).toNanos());
+        assertEquals(Duration.ofMillis(200), limiter.reserve());
+    }
+
+    @Test
+    void rateRecoversAdditively() {
+        final var limiter = limiter();
+        limiter.onThrottled(Duration.ZERO);
+        assertEquals(5, limiter.getRate());
+
+        for (int i = 0; i < 100; ++i) {
+            limiter.onSuccess();
+        }
+        assertTrue(limiter.getRate() > 5);
+        assertTrue(limiter.getRate() <= 20);
+    }
+}
@@ -0,0 +1,55 @@
+package de.niklasfi.aocr.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OcrEventsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void pageContextIsRestoredWhenScopeIsClosed() {
+        final var outer = new PageContext("doc", 1);
+        try (final var ignored = outer.enter()) {
+            try (final var ignored2 = new PageContext("doc", 2).enter()) {
+                assertEquals(2, PageContext.current().page());
+            }
+            assertEquals(outer, PageContext.current());
+        }
+        assertEquals(PageContext.NONE, PageContext.current());
+    }
+
+    @Test
+    void eventsCarryPageContext() throws Exception {
+        final var file = directory.resolve("recording.jfr");
+        try (final var recording = new Recording()) {
+            recording.enable(OcrEvents.EncodeEvent.class);
+            recording.start();
+            try (final var ignored = new PageContext("doc", 3).enter()) {
+                final var event = new OcrEvents.EncodeEvent();
+                event.begin();
+                if (event.shouldCommit()) {
+                    event.setContext(PageContext.current());
+                    event.size = 1234;
+                    event.commit();
+                }
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        final var events = RecordingFile.readAllEvents(file);
+        assertEquals(1, events.size());
+        assertEquals("de.niklasfi.aocr.Encode", events.getFirst().getEventType().getName());
+        assertEquals("doc", events.getFirst().getString("documentId"));
+        assertEquals(3, events.getFirst().getInt("page"));
+        assertEquals(1234, events.getFirst().getLong("size"));
+    }
+}
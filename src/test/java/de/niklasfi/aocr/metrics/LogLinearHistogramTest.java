@@ -0,0 +1,68 @@
+package de.niklasfi.aocr.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogLinearHistogramTest {
+
+    @Test
+    void bucketsAreContiguous() {
+        for (long value = 0; value < 1 << 16; value++) {
+            final var index = LogLinearHistogram.index(value);
+            assertTrue(value <= LogLinearHistogram.highestEquivalentValue(index));
+            if (index > 0) {
+                assertTrue(value > LogLinearHistogram.highestEquivalentValue(index - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LogLinearHistogram.highestEquivalentValue(LogLinearHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        final var histogram = new LogLinearHistogram();
+        for (int value = 1; value <= 10; value++) {
+            histogram.record(value);
+        }
+        assertEquals(5, histogram.valueAtQuantile(.5));
+        assertEquals(9, histogram.valueAtQuantile(.9));
+        assertEquals(10, histogram.valueAtQuantile(1));
+
+        final var summary = histogram.summary(1);
+        assertEquals(10, summary.count());
+        assertEquals(1, summary.min());
+        assertEquals(10, summary.max());
+        assertEquals(5.5, summary.mean());
+    }
+
+    @Test
+    void quantilesHaveBoundedRelativeError() {
+        final var random = new Random(42);
+        final var values = new long[100_000];
+        final var histogram = new LogLinearHistogram();
+        for (int idx = 0; idx < values.length; idx++) {
+            // latencies between 1 ms and 10 s, in nanoseconds
+            values[idx] = (long) (1e6 * Math.pow(10, 4 * random.nextDouble()));
+            histogram.record(values[idx]);
+        }
+        Arrays.sort(values);
+
+        for (final var quantile : new double[]{.5, .9, .99, .999}) {
+            final var exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            final var estimate = histogram.valueAtQuantile(quantile);
+            assertTrue(estimate >= exact);
+            assertTrue(estimate <= exact * 1.04, "%d is not within 4 %% of %d".formatted(estimate, exact));
+        }
+    }
+
+    @Test
+    void emptyHistogramSummarizesToZero() {
+        final var summary = new LogLinearHistogram().summary(1e6);
+        assertEquals(0, summary.count());
+        assertEquals(0, summary.p99());
+    }
+}